@@ -0,0 +1,125 @@
+package fr.insalyon.creatis.gasw.executor.slurm.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sshd.common.channel.Channel;
+import org.apache.sshd.common.channel.ChannelListener;
+import org.apache.sshd.common.config.keys.writer.openssh.OpenSSHKeyPairResourceWriter;
+import org.apache.sshd.common.session.Session;
+import org.apache.sshd.common.session.SessionListener;
+import org.apache.sshd.scp.server.ScpCommandFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.auth.pubkey.AcceptAllPublickeyAuthenticator;
+import org.apache.sshd.server.command.CommandFactory;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.shell.ProcessShellFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Config;
+
+/**
+ * In process sshd running the commands with the local /bin/sh (scp included), any key is accepted.
+ * Gives a Config pointing to it, so the plugin code runs unchanged against it.
+ * The sessions and channels opened by the clients are counted.
+ */
+public class EmbeddedSshServer implements AutoCloseable {
+
+    final private SshServer     server;
+    final private Path          home;
+    final private Path          privateKey;
+    final private AtomicInteger sessions = new AtomicInteger();
+    final private AtomicInteger channels = new AtomicInteger();
+
+    /**
+     * @param environment prepended to every command (PATH=... for instance), may be empty
+     */
+    public EmbeddedSshServer(final String environment) throws IOException, GeneralSecurityException {
+        final CommandFactory shell = (channel, command) ->
+            new ProcessShellFactory(command, "/bin/sh", "-c", environment + command).createShell(channel);
+
+        home = Files.createTempDirectory("slurm-sshd");
+        privateKey = home.resolve("id_rsa");
+        writeClientKey();
+
+        server = SshServer.setUpDefaultServer();
+        server.setPort(0);
+        server.setKeyPairProvider(new SimpleGeneratorHostKeyProvider());
+        server.setPublickeyAuthenticator(AcceptAllPublickeyAuthenticator.INSTANCE);
+        server.setCommandFactory(new ScpCommandFactory.Builder().withDelegate(shell).build());
+        server.addSessionListener(new SessionListener() {
+            @Override
+            public void sessionCreated(final Session session) {
+                sessions.incrementAndGet();
+            }
+        });
+        server.addChannelListener(new ChannelListener() {
+            @Override
+            public void channelOpenSuccess(final Channel channel) {
+                channels.incrementAndGet();
+            }
+        });
+        server.start();
+    }
+
+    public EmbeddedSshServer() throws IOException, GeneralSecurityException {
+        this("");
+    }
+
+    /**
+     * @param options overridden options, the others keep their default value
+     */
+    public Config config(final Map<String, Object> options) throws IOException {
+        return config(Map.of(
+            "host", "127.0.0.1",
+            "port", server.getPort(),
+            "username", System.getProperty("user.name"),
+            "privateKeyPath", privateKey.toString(),
+            "workingDir", home.toString() + "/"), options);
+    }
+
+    /**
+     * Same mapping as the config.json file.
+     */
+    public static Config config(final Map<String, Object> credentials, final Map<String, Object> options) throws IOException {
+        final ObjectMapper mapper = new ObjectMapper();
+
+        return mapper.readValue(mapper.writeValueAsBytes(Map.of("credentials", credentials, "options", options)), Config.class);
+    }
+
+    public Path getHome() {
+        return home;
+    }
+
+    public int getSessionCount() {
+        return sessions.get();
+    }
+
+    public int getChannelCount() {
+        return channels.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.stop(true);
+    }
+
+    private void writeClientKey() throws IOException, GeneralSecurityException {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        final KeyPair keyPair;
+
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+        try (OutputStream out = Files.newOutputStream(privateKey)) {
+            OpenSSHKeyPairResourceWriter.INSTANCE.writePrivateKey(keyPair, "benchmark", null, out);
+        }
+    }
+}
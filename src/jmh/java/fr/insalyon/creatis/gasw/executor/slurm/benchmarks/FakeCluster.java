@@ -0,0 +1,226 @@
+package fr.insalyon.creatis.gasw.executor.slurm.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Config;
+import lombok.Getter;
+
+/**
+ * Simulated Slurm/PBS cluster behind an EmbeddedSshServer, to drive the plugin end to end without a real one.
+ * sbatch/qsub, sacct, squeue, scontrol, tracejob and scancel/qdel are shell scripts put first in the PATH
+ * of every remote command, sharing one jobs file. The state of a job is derived from the time since its submission:
+ * PENDING for queueDelay seconds, RUNNING between runtimeMin and runtimeMax seconds, then COMPLETED,
+ * or FAILED for failRate percent of the jobs. submitFailRate percent of the submissions are refused.
+ * With slots > 0 at most that many jobs run at once, the others start in later waves.
+ * Nothing is executed: no output is written, the exit codes are the ones reported by sacct.
+ */
+public class FakeCluster implements AutoCloseable {
+
+    final private static Map<String, String> SCRIPTS = new LinkedHashMap<>();
+
+    static {
+        SCRIPTS.put("_fake-states", """
+            #!/bin/sh
+            # id|state|exitcode|reason|end of the jobs (and array tasks) listed in $1, all of them if empty
+            . "$FAKE_CLUSTER/params"
+            touch "$FAKE_CLUSTER/jobs" "$FAKE_CLUSTER/cancelled"
+            awk -F'|' -v now="$(date +%s)" -v ids=",$1," -v q="$QUEUE_DELAY" -v rmin="$RUNTIME_MIN" -v rmax="$RUNTIME_MAX" \\
+                -v fail="$FAIL_RATE" -v slots="$SLOTS" '
+            function report(id, job, seed, submit, cancel,   start, end) {
+                start = submit + q + (slots > 0 ? int(k / slots) * (rmin + rmax) / 2 : 0)
+                end = start + rmin + (seed * 7919) % (rmax - rmin + 1)
+                k++
+                if (ids != ",," && index(ids, "," id ",") == 0 && index(ids, "," job ",") == 0) {
+                    return
+                }
+                if (cancel != "" && cancel < end) {
+                    print id "|CANCELLED|0:15|None|" cancel
+                } else if (now < start) {
+                    print id "|PENDING|0:0|Priority|"
+                } else if (now < end) {
+                    print id "|RUNNING|0:0|None|"
+                } else if ((seed * 104729) % 100 < fail) {
+                    print id "|FAILED|1:0|NonZeroExitCode|" end
+                } else {
+                    print id "|COMPLETED|0:0|None|" end
+                }
+            }
+            FILENAME == ARGV[1] {
+                cancelled[$1] = $2
+                next
+            }
+            $4 + 0 == 0 {
+                report($1, $1, $1, $3, cancelled[$1])
+                next
+            }
+            {
+                for (i = 0; i < $4; i++) {
+                    report($1 "_" i, $1, $1 * 1000 + i, $3, cancelled[$1] != "" ? cancelled[$1] : cancelled[$1 "_" i])
+                }
+            }' "$FAKE_CLUSTER/cancelled" "$FAKE_CLUSTER/jobs"
+            """);
+        SCRIPTS.put("_fake-submit", """
+            #!/bin/sh
+            # register the batch file given as last argument, prints the new job ID
+            . "$FAKE_CLUSTER/params"
+            for f; do :; done
+            if [ ! -r "$f" ]; then
+                echo "error: Unable to open file $f" >&2
+                exit 1
+            fi
+            if [ "$SUBMIT_FAIL_RATE" -gt 0 ] && [ $(($(od -An -N2 -tu2 /dev/urandom) % 100)) -lt "$SUBMIT_FAIL_RATE" ]; then
+                echo "error: Batch job submission failed: Resource temporarily unavailable" >&2
+                exit 1
+            fi
+            tasks=$(sed -n 's/^#SBATCH --array=0-\\([0-9]*\\).*/\\1/p' "$f")
+            exec 9>>"$FAKE_CLUSTER/lock"
+            flock 9
+            id=$(($(cat "$FAKE_CLUSTER/seq" 2>/dev/null || echo 1000000) + 1))
+            echo $id > "$FAKE_CLUSTER/seq"
+            echo "$id|$(basename "$f")|$(date +%s)|${tasks:+$((tasks + 1))}" >> "$FAKE_CLUSTER/jobs"
+            flock -u 9
+            echo $id
+            """);
+        SCRIPTS.put("sbatch", """
+            #!/bin/sh
+            id=$("$FAKE_CLUSTER/bin/_fake-submit" "$@") || exit 1
+            case " $* " in
+                *" --parsable "*) echo "$id" ;;
+                *) echo "Submitted batch job $id" ;;
+            esac
+            """);
+        SCRIPTS.put("qsub", """
+            #!/bin/sh
+            id=$("$FAKE_CLUSTER/bin/_fake-submit" "$@") || exit 1
+            echo "$id.fake"
+            """);
+        SCRIPTS.put("sacct", """
+            #!/bin/sh
+            # only -j is understood, the output is always JobID,State,ExitCode,Reason (and End with FAKE_SACCT_END)
+            ids=
+            while [ $# -gt 0 ]; do
+                case "$1" in
+                    -j|--jobs) ids=$2; shift ;;
+                    --jobs=*) ids=${1#--jobs=} ;;
+                esac
+                shift
+            done
+            if [ -n "$FAKE_SACCT_END" ]; then
+                exec "$FAKE_CLUSTER/bin/_fake-states" "$ids"
+            fi
+            "$FAKE_CLUSTER/bin/_fake-states" "$ids" | cut -d'|' -f1-4
+            """);
+        SCRIPTS.put("squeue", """
+            #!/bin/sh
+            echo "JOBID STATE"
+            "$FAKE_CLUSTER/bin/_fake-states" "" | awk -F'|' '$2 == "PENDING" || $2 == "RUNNING" { print $1 " " $2 }'
+            """);
+        SCRIPTS.put("scontrol", """
+            #!/bin/sh
+            if [ "$1 $2" != "show job" ]; then
+                echo "scontrol: only show job is simulated" >&2
+                exit 1
+            fi
+            line=$("$FAKE_CLUSTER/bin/_fake-states" "$3")
+            if [ -z "$line" ]; then
+                echo "slurm_load_jobs error: Invalid job id specified" >&2
+                exit 1
+            fi
+            echo "$line" | awk -F'|' '{ print "   JobId=" $1 " JobName=fake"; print "   JobState=" $2 " Reason=" $4 " ExitCode=" $3 }'
+            """);
+        SCRIPTS.put("tracejob", """
+            #!/bin/sh
+            line=$("$FAKE_CLUSTER/bin/_fake-states" "${1%%.*}")
+            if [ -z "$line" ]; then
+                echo "tracejob: Couldn't find job $1" >&2
+                exit 1
+            fi
+            echo "$line" | awk -F'|' -v date="$(date '+%m/%d/%Y %H:%M:%S')" '{ print date "  S    Job " $1 " state " $2 }'
+            """);
+        SCRIPTS.put("scancel", """
+            #!/bin/sh
+            for id; do
+                case "$id" in
+                    -*) ;;
+                    *) echo "${id%%.*}|$(date +%s)" >> "$FAKE_CLUSTER/cancelled" ;;
+                esac
+            done
+            """);
+        SCRIPTS.put("qdel", SCRIPTS.get("scancel"));
+    }
+
+    @Getter
+    final private EmbeddedSshServer server;
+    final private Path              dir;
+
+    /**
+     * @param queueDelay seconds between the submission and the start of a job
+     * @param runtimeMin seconds, minimum runtime of a job
+     * @param runtimeMax seconds, maximum runtime of a job
+     * @param failRate percent of the jobs ending FAILED
+     * @param submitFailRate percent of the submissions refused
+     * @param slots jobs running at once, 0 for no limit
+     */
+    public FakeCluster(final int queueDelay, final int runtimeMin, final int runtimeMax, final int failRate,
+            final int submitFailRate, final int slots) throws IOException, GeneralSecurityException {
+        dir = Files.createTempDirectory("fake-cluster");
+        Files.createDirectories(dir.resolve("bin"));
+        for (final Map.Entry<String, String> script : SCRIPTS.entrySet()) {
+            Files.writeString(dir.resolve("bin").resolve(script.getKey()), script.getValue());
+            Files.setPosixFilePermissions(dir.resolve("bin").resolve(script.getKey()), PosixFilePermissions.fromString("rwxr-xr-x"));
+        }
+        Files.writeString(dir.resolve("params"), "QUEUE_DELAY=" + queueDelay + "\n"
+            + "RUNTIME_MIN=" + runtimeMin + "\n"
+            + "RUNTIME_MAX=" + Math.max(runtimeMin, runtimeMax) + "\n"
+            + "FAIL_RATE=" + failRate + "\n"
+            + "SUBMIT_FAIL_RATE=" + submitFailRate + "\n"
+            + "SLOTS=" + slots + "\n");
+        server = new EmbeddedSshServer("FAKE_CLUSTER=" + dir + "; PATH=" + dir + "/bin:$PATH; export FAKE_CLUSTER PATH; ");
+    }
+
+    public Config config(final Map<String, Object> options) throws IOException {
+        return server.config(options);
+    }
+
+    /**
+     * Read locally, no ssh session is used.
+     * @return end time in milliseconds (second precision) of the finished jobs and tasks, by scheduler ID
+     */
+    public Map<String, Long> getEndTimes() throws IOException, InterruptedException {
+        final Map<String, Long> ends = new HashMap<>();
+        final ProcessBuilder builder = new ProcessBuilder("/bin/sh", dir.resolve("bin").resolve("sacct").toString());
+        final Process process;
+
+        builder.environment().put("FAKE_CLUSTER", dir.toString());
+        builder.environment().put("FAKE_SACCT_END", "1");
+        process = builder.start();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.split("\\|", -1);
+
+                if (fields.length == 5 && ! fields[4].isEmpty()) {
+                    ends.put(fields[0], Long.parseLong(fields[4]) * 1000);
+                }
+            }
+        }
+        process.waitFor();
+        return ends;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+}
@@ -0,0 +1,170 @@
+package fr.insalyon.creatis.gasw.executor.slurm.benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.insalyon.creatis.gasw.execution.GaswStatus;
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Config;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.SlurmJob;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.SlurmManager;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.status.JobState;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.status.StatusEngine;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.status.StatusSnapshot;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.SessionPool;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.SshContext;
+
+/**
+ * End to end load test against a FakeCluster: submits synthetic jobs through the SlurmManager,
+ * polls them the way SlurmMonitor does, then reports the submit throughput, the completion detection
+ * latency and the ssh sessions/channels opened.
+ * The monitor itself is not used, it needs the GASW database; the jobs are neither finalized nor downloaded.
+ *
+ * Run it from a scratch directory, the job inputs (./inv, ./config, ./sh) and GASW settings are created there:
+ * mvn -Pjmh test-compile exec:exec -Dexec.workingdir=/tmp/load -Djmh.jvmArgs="-Djobs=10000 -Doption.arrayWindow=2000"
+ *     -Djmh.main=fr.insalyon.creatis.gasw.executor.slurm.benchmarks.FakeClusterLoadRunner
+ * Parameters are system properties: jobs (10000), queueDelay (5), runtimeMin (10), runtimeMax (60), failRate (5),
+ * submitFailRate (0), slots (0), poll (1000 ms), timeout (1800 s), and any plugin option as option.name=value.
+ */
+public class FakeClusterLoadRunner {
+
+    public static void main(final String[] args) throws Exception {
+        final int jobs = Integer.getInteger("jobs", 10000);
+        final long poll = Long.getLong("poll", 1000);
+        final long deadline = System.currentTimeMillis() + Long.getLong("timeout", 1800) * 1000;
+
+        try (FakeCluster cluster = new FakeCluster(Integer.getInteger("queueDelay", 5), Integer.getInteger("runtimeMin", 10),
+                Integer.getInteger("runtimeMax", 60), Integer.getInteger("failRate", 5),
+                Integer.getInteger("submitFailRate", 0), Integer.getInteger("slots", 0))) {
+            final Config config = cluster.config(options());
+            final SlurmManager manager = new SlurmManager("load-" + System.currentTimeMillis(), config);
+            final StatusEngine engine = new StatusEngine(config);
+            final Map<String, Long> detectedAt = new HashMap<>();
+            final List<Long> latencies = new ArrayList<>();
+            long submitStart;
+            long submitEnd = 0;
+            long nextPoll = 0;
+            int errors = 0;
+
+            writeInputs(jobs);
+            SshContext.start(config);
+            manager.init();
+
+            submitStart = System.currentTimeMillis();
+            for (int i = 0; i < jobs; i++) {
+                manager.submitter("load-job-" + i, "/bin/true");
+            }
+            while ( ! manager.getUnfinishedJobs().isEmpty() && System.currentTimeMillis() < deadline) {
+                final List<SlurmJob> active = List.copyOf(manager.getUnfinishedJobs());
+
+                if (submitEnd == 0 && active.stream().allMatch(FakeClusterLoadRunner::isSubmitted)) {
+                    submitEnd = System.currentTimeMillis();
+                }
+                if (System.currentTimeMillis() >= nextPoll) {
+                    final StatusSnapshot snapshot = engine.poll(active);
+                    final long now = System.currentTimeMillis();
+
+                    nextPoll = now + poll;
+                    for (final SlurmJob job : active) {
+                        final JobState state = snapshot.get(job.getData().getSlurmJobID());
+                        final GaswStatus status;
+
+                        job.applyState(state);
+                        status = job.getStatus();
+                        if (status != GaswStatus.RUNNING && status != GaswStatus.QUEUED
+                                && status != GaswStatus.UNDEFINED && status != GaswStatus.NOT_SUBMITTED) {
+                            job.setTerminated(true);
+                            if (job.getData().getSlurmJobID() != null) {
+                                detectedAt.put(job.getData().getSlurmJobID(), now);
+                            } else {
+                                errors++;
+                            }
+                        }
+                    }
+                }
+                Thread.sleep(100);
+            }
+            cluster.getEndTimes().forEach((id, end) -> {
+                if (detectedAt.containsKey(id)) {
+                    latencies.add(detectedAt.get(id) - end);
+                }
+            });
+            report(jobs, submitStart, submitEnd, detectedAt.size(), errors, manager.getUnfinishedJobs().size(), latencies, cluster);
+
+            manager.destroy();
+            SessionPool.shutdown();
+            SshContext.stop();
+        }
+        System.exit(0);
+    }
+
+    private static boolean isSubmitted(final SlurmJob job) {
+        return job.getData().getSlurmJobID() != null || job.getStatus() == GaswStatus.ERROR;
+    }
+
+    /**
+     * @return the option.* system properties, typed as the json parser would
+     */
+    private static Map<String, Object> options() {
+        final Map<String, Object> options = new HashMap<>();
+
+        System.getProperties().stringPropertyNames().stream()
+            .filter(name -> name.startsWith("option."))
+            .forEach(name -> {
+                final String value = System.getProperty(name);
+
+                if (value.equals("true") || value.equals("false")) {
+                    options.put(name.substring("option.".length()), Boolean.parseBoolean(value));
+                } else if (value.matches("-?\\d+")) {
+                    options.put(name.substring("option.".length()), Long.parseLong(value));
+                } else {
+                    options.put(name.substring("option.".length()), value);
+                }
+            });
+        return options;
+    }
+
+    private static void writeInputs(final int jobs) throws Exception {
+        for (final String dir : List.of("inv", "config", "sh")) {
+            Files.createDirectories(Paths.get(dir));
+        }
+        Files.writeString(Paths.get("workflow.json"), "{}");
+        for (int i = 0; i < jobs; i++) {
+            final String jobID = "load-job-" + i;
+
+            write(Paths.get("inv", jobID + "-invocation.json"), "{}");
+            write(Paths.get("config", jobID + "-configuration.sh"), "# " + jobID + "\n");
+            write(Paths.get("sh", jobID + ".sh"), "#!/bin/sh\necho " + jobID + "\n");
+        }
+    }
+
+    private static void write(final Path file, final String content) throws Exception {
+        if ( ! Files.exists(file)) {
+            Files.writeString(file, content);
+        }
+    }
+
+    private static void report(final int jobs, final long submitStart, final long submitEnd, final int detected, final int errors,
+            final int left, final List<Long> latencies, final FakeCluster cluster) {
+        final double submitSeconds = ((submitEnd == 0 ? System.currentTimeMillis() : submitEnd) - submitStart) / 1000.0;
+
+        latencies.sort(null);
+        System.out.println("jobs                 : " + jobs + " (" + detected + " finished, " + errors + " submission errors, "
+            + left + " left)");
+        System.out.printf("submit throughput    : %.1f jobs/s (%.1f s)%n", jobs / submitSeconds, submitSeconds);
+        if ( ! latencies.isEmpty()) {
+            System.out.println("detection latency ms : p50 " + percentile(latencies, 50) + ", p95 " + percentile(latencies, 95)
+                + ", max " + latencies.get(latencies.size() - 1) + " (end times have a one second precision)");
+        }
+        System.out.println("ssh                  : " + cluster.getServer().getSessionCount() + " sessions, "
+            + cluster.getServer().getChannelCount() + " channels");
+    }
+
+    private static long percentile(final List<Long> sorted, final int percent) {
+        return sorted.get(Math.min(sorted.size() - 1, sorted.size() * percent / 100));
+    }
+}
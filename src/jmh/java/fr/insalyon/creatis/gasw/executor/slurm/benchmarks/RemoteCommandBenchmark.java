@@ -0,0 +1,95 @@
+package fr.insalyon.creatis.gasw.executor.slurm.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Config;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.RemoteCommand;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteTerminal;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.SessionPool;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.SshContext;
+
+/**
+ * Commands per second against an in process sshd:
+ * - execute: one channel at a time on a connected terminal
+ * - executeAsync: BATCH channels multiplexed on the same session, at most maxChannelsPerSession at once
+ * - oneCommand: a session borrowed from the pool for each command
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 5) @Measurement(iterations = 5, time = 5) @Fork(1)
+public class RemoteCommandBenchmark {
+
+    final private static int    BATCH = 64;
+
+    @Param({ "1", "10" })
+    private int                 channels;
+
+    private EmbeddedSshServer   server;
+    private Config              config;
+    private RemoteTerminal      rt;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        server = new EmbeddedSshServer();
+        config = server.config(Map.of("maxChannelsPerSession", channels, "maxSessions", 4));
+        SshContext.start(config);
+        rt = new RemoteTerminal(config);
+        rt.connect();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        rt.disconnect();
+        SessionPool.shutdown();
+        SshContext.stop();
+        server.close();
+    }
+
+    @Benchmark
+    public RemoteCommand execute() {
+        return new Echo().execute(rt);
+    }
+
+    @Benchmark @OperationsPerInvocation(BATCH)
+    public List<RemoteCommand> executeAsync() {
+        final List<CompletableFuture<RemoteCommand>> futures = new ArrayList<>(BATCH);
+
+        for (int i = 0; i < BATCH; i++) {
+            futures.add(new Echo().executeAsync(rt));
+        }
+        return futures.stream().map(CompletableFuture::join).toList();
+    }
+
+    @Benchmark
+    public RemoteCommand oneCommand() throws Exception {
+        return new Echo().execute(config);
+    }
+
+    private static class Echo extends RemoteCommand {
+
+        Echo() {
+            super("echo 1000001");
+        }
+
+        public String result() {
+            return getOutput().getStdout().getContent();
+        }
+    }
+}
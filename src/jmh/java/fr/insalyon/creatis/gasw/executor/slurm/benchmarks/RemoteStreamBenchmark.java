@@ -0,0 +1,70 @@
+package fr.insalyon.creatis.gasw.executor.slurm.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteStream;
+
+/**
+ * Parsing of squeue like outputs (space separated, one job per line).
+ * Each invocation parses a new stream so the line indexing is part of the measure.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2) @Measurement(iterations = 5, time = 2) @Fork(1)
+public class RemoteStreamBenchmark {
+
+    final private static String[] STATES = { "PENDING", "RUNNING", "COMPLETING", "COMPLETED", "FAILED" };
+
+    @Param({ "1000", "10000", "100000" })
+    private int             lines;
+
+    private String          content;
+
+    @Setup
+    public void setup() {
+        final StringBuilder content = new StringBuilder(lines * 64);
+
+        for (int i = 0; i < lines; i++) {
+            content.append(1000000 + i).append("   normal  job-").append(i).append("  vip ")
+                .append(STATES[i % STATES.length]).append("  1:23  1 node").append(i % 64).append("\n");
+        }
+        this.content = content.toString();
+    }
+
+    @Benchmark
+    public String[] getLines() {
+        return new RemoteStream(content).getLines();
+    }
+
+    @Benchmark
+    public String[] getFirstRow() {
+        return new RemoteStream(content).getRow(0);
+    }
+
+    @Benchmark
+    public String[] getLastRow() {
+        return new RemoteStream(content).getRow(lines - 1);
+    }
+
+    @Benchmark
+    public String[] getColumn() {
+        return new RemoteStream(content).getColumn(4);
+    }
+
+    @Benchmark
+    public CharSequence getLastField() {
+        return new RemoteStream(content).getField(lines - 1, 4);
+    }
+}
@@ -0,0 +1,110 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.insalyon.creatis.gasw.execution.GaswStatus;
+import fr.insalyon.creatis.gasw.executor.slurm.benchmarks.EmbeddedSshServer;
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Config;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteFile;
+
+/**
+ * Job side hot paths: status conversion, batch file generation and the manager lookups
+ * with 10k to 100k registered jobs (a tenth of them terminated).
+ * The jobs are registered directly, the manager runner is never started.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2) @Measurement(iterations = 5, time = 2) @Fork(1)
+public class SlurmJobBenchmark {
+
+    final private static String[]   STATES = { "PENDING", "RUNNING", "COMPLETING", "COMPLETED", "FAILED", "TIMEOUT", "UNKNOWN" };
+
+    @Param({ "10000", "100000" })
+    private int             jobs;
+
+    private SlurmManager    manager;
+    private SlurmJobData    data;
+
+    @Setup
+    public void setup() throws Exception {
+        final Config config = EmbeddedSshServer.config(Map.of(
+            "host", "localhost",
+            "port", 22,
+            "username", "vip",
+            "privateKeyPath", "/dev/null",
+            "workingDir", "/home/vip/"), Map.of());
+
+        manager = new SlurmManager("workflow-benchmark", config);
+        for (int i = 0; i < jobs; i++) {
+            final SlurmJob job = new SlurmJob(jobData(config, "job-" + i));
+
+            manager.getRegistry().add(job);
+            job.setSchedulerJobID(String.valueOf(1000000 + i));
+            job.setStatus(i % 2 == 0 ? GaswStatus.QUEUED : GaswStatus.RUNNING);
+            if (i % 10 == 0) {
+                job.setTerminated(true);
+            }
+        }
+        data = jobData(config, "job-0");
+    }
+
+    @Benchmark
+    public void convertStatus(final Blackhole blackhole) {
+        for (final String state : STATES) {
+            blackhole.consume(SlurmJob.convertStatus(state));
+        }
+    }
+
+    @Benchmark
+    public StringBuilder buildBatchFile() {
+        return new BatchFile(data).build();
+    }
+
+    @Benchmark
+    public SlurmJob getJob() {
+        return manager.getJob("job-" + ThreadLocalRandom.current().nextInt(jobs));
+    }
+
+    @Benchmark
+    public SlurmJob getJobBySchedulerID() {
+        return manager.getJobBySchedulerID(String.valueOf(1000000 + ThreadLocalRandom.current().nextInt(jobs)));
+    }
+
+    @Benchmark
+    public int iterateUnfinishedJobs() {
+        final Collection<SlurmJob> unfinished = manager.getUnfinishedJobs();
+        int count = 0;
+
+        for (final SlurmJob job : unfinished) {
+            count += job.isTerminated() ? 0 : 1;
+        }
+        return count;
+    }
+
+    private SlurmJobData jobData(final Config config, final String jobID) {
+        final SlurmJobData jobData = new SlurmJobData(jobID, config);
+
+        jobData.setWorkingDir("/home/vip/workflow-benchmark/");
+        jobData.setCommand("/bin/sh sh/" + jobID + ".sh");
+        jobData.setFilesUpload(List.of(new RemoteFile("./sh/" + jobID + ".sh", "/home/vip/workflow-benchmark/sh")));
+        jobData.setFilesDownload(List.of(new RemoteFile(jobData.getStdoutPath(), "./out/" + jobID + ".sh.out")));
+        return jobData;
+    }
+}
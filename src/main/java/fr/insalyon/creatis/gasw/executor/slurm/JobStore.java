@@ -0,0 +1,159 @@
+package fr.insalyon.creatis.gasw.executor.slurm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import fr.insalyon.creatis.gasw.bean.Job;
+import fr.insalyon.creatis.gasw.dao.DAOException;
+import fr.insalyon.creatis.gasw.dao.JobDAO;
+import fr.insalyon.creatis.gasw.execution.GaswStatus;
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Config;
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Options;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.metrics.Metrics;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Write behind layer over the GASW JobDAO.
+ * The latest Job of each active job is kept in memory, so it is read from the database once,
+ * and successive updates of a job are coalesced into one write.
+ * Dirty jobs are flushed every daoFlushInterval, as soon as daoFlushSize of them are waiting,
+ * on flush() and on shutdown(). Jobs written with a final status are dropped from memory.
+ * GASW updates the jobs too, so a flush reads each job back and only merges the fields
+ * written by the plugin (status, exit code, queued and download dates) before writing it.
+ */
+@Log4j
+public class JobStore {
+
+    private static JobStore instance;
+
+    final private JobDAO                    jobDAO;
+    final private Options                   options;
+    final private Map<String, Job>          jobs = new ConcurrentHashMap<>();
+    final private Map<String, Job>          dirty = new ConcurrentHashMap<>();
+    final private ScheduledExecutorService  flusher;
+
+    /**
+     * The first call creates the store, the parameters of the next ones are ignored.
+     */
+    public synchronized static JobStore getInstance(final Config config, final JobDAO jobDAO) {
+        if (instance == null) {
+            instance = new JobStore(config, jobDAO);
+        }
+        return instance;
+    }
+
+    /**
+     * Write every pending update and stop the flusher.
+     */
+    public synchronized static void shutdown() {
+        if (instance != null) {
+            instance.flusher.shutdownNow();
+            instance.flush();
+            instance = null;
+        }
+    }
+
+    private JobStore(final Config config, final JobDAO jobDAO) {
+        final long period = Math.max(1, config.getOptions().getDaoFlushInterval());
+
+        this.jobDAO = jobDAO;
+        this.options = config.getOptions();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "slurm-dao-flusher");
+
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flush, period, period, TimeUnit.MILLISECONDS);
+        Metrics.gauge("store.dirty", dirty::size);
+    }
+
+    /**
+     * @return the in memory job, read from the database only the first time
+     */
+    public Job get(final String jobID) throws DAOException {
+        final Job known = jobs.get(jobID);
+
+        if (known != null) {
+            return known;
+        }
+        jobs.putIfAbsent(jobID, jobDAO.getJobByID(jobID));
+        return jobs.get(jobID);
+    }
+
+    /**
+     * Mark the job to be written, the write itself is deferred.
+     */
+    public void update(final Job job) {
+        jobs.put(job.getId(), job);
+        dirty.put(job.getId(), job);
+        if (dirty.size() >= Math.max(1, options.getDaoFlushSize()) && ! flusher.isShutdown()) {
+            flusher.execute(this::flush);
+        }
+    }
+
+    public int getDirtyCount() {
+        return dirty.size();
+    }
+
+    /**
+     * Write the pending updates now, a job failing to be written is kept for the next flush.
+     */
+    public synchronized void flush() {
+        final List<String> ids = new ArrayList<>(dirty.keySet());
+        int written = 0;
+
+        for (final String id : ids) {
+            final Job job = dirty.remove(id);
+
+            if (job == null) {
+                continue;
+            }
+            try {
+                final Job merged = merge(job);
+
+                jobDAO.update(merged);
+                written++;
+                if (isFinal(merged.getStatus())) {
+                    jobs.remove(id, job);
+                } else {
+                    /* the next get() returns the merged job, unless it was updated meanwhile */
+                    jobs.replace(id, job, merged);
+                }
+            } catch (DAOException e) {
+                log.error("Failed to write the job " + id + ", retrying on next flush", e);
+                dirty.putIfAbsent(id, job);
+                break;
+            }
+        }
+        if (written > 0) {
+            log.debug("Flushed " + written + " job updates");
+        }
+    }
+
+    /**
+     * @return the job as currently stored, with the fields owned by the plugin taken from the cached one
+     */
+    private Job merge(final Job cached) throws DAOException {
+        final Job stored = jobDAO.getJobByID(cached.getId());
+
+        if (stored == null || stored == cached) {
+            return cached;
+        }
+        stored.setStatus(cached.getStatus());
+        stored.setExitCode(cached.getExitCode());
+        stored.setQueued(cached.getQueued());
+        stored.setDownload(cached.getDownload());
+        return stored;
+    }
+
+    private boolean isFinal(final GaswStatus status) {
+        return status == GaswStatus.COMPLETED || status == GaswStatus.ERROR
+            || status == GaswStatus.CANCELLED || status == GaswStatus.STALLED;
+    }
+}
@@ -0,0 +1,125 @@
+package fr.insalyon.creatis.gasw.executor.slurm;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.insalyon.creatis.gasw.bean.Job;
+import fr.insalyon.creatis.gasw.dao.DAOException;
+import fr.insalyon.creatis.gasw.execution.GaswStatus;
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Config;
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Options;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.SlurmJob;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.metrics.Metrics;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Bounded executor of the output parsers.
+ * SlurmOutputParser is a Thread (GaswOutputParser) but it is never started, its run() is executed
+ * by one of the parserThreads workers, which download through the shared session pool.
+ * When parserQueueSize parsers are already waiting, the caller runs the parser itself (backpressure).
+ */
+@Log4j
+public class ParserExecutor {
+
+    private static ParserExecutor instance;
+
+    final private Options               options;
+    final private JobStore              store;
+    final private ThreadPoolExecutor    executor;
+
+    /**
+     * @param store used to mark the jobs whose parser is dropped on shutdown
+     */
+    public synchronized static ParserExecutor getInstance(final Config config, final JobStore store) {
+        if (instance == null) {
+            instance = new ParserExecutor(config, store);
+        }
+        return instance;
+    }
+
+    /**
+     * Wait for the queued parsers, at most shutdownTimeout. The ones still running are then interrupted
+     * and the jobs of the ones never started are set to ERROR.
+     */
+    public synchronized static void shutdown() {
+        if (instance != null) {
+            instance.close();
+            instance = null;
+        }
+    }
+
+    private ParserExecutor(final Config config, final JobStore store) {
+        final int threads = Math.max(1, config.getOptions().getParserThreads());
+        final AtomicInteger counter = new AtomicInteger();
+
+        this.options = config.getOptions();
+        this.store = store;
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, options.getParserQueueSize())),
+            r -> {
+                final Thread thread = new Thread(r, "slurm-parser-" + counter.incrementAndGet());
+
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+        Metrics.gauge("parsers.active", executor::getActiveCount);
+        Metrics.gauge("parsers.queued", () -> executor.getQueue().size());
+    }
+
+    public void execute(final SlurmJob job) {
+        executor.execute(new SlurmOutputParser(job));
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    public long getCompletedCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    private void close() {
+        final List<Runnable> dropped;
+        final int active;
+
+        executor.shutdown();
+        try {
+            if (executor.awaitTermination(options.getShutdownTimeout(), TimeUnit.SECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        active = getActiveCount();
+        dropped = executor.shutdownNow();
+        log.error("Output parsers not finished after " + options.getShutdownTimeout() + "s, "
+            + active + " interrupted and " + dropped.size() + " dropped");
+        for (final Runnable parser : dropped) {
+            if (parser instanceof SlurmOutputParser outputParser) {
+                abandon(outputParser.getSlurmJob().getData().getJobID());
+            }
+        }
+    }
+
+    private void abandon(final String jobID) {
+        try {
+            final Job job = store.get(jobID);
+
+            job.setStatus(GaswStatus.ERROR);
+            store.update(job);
+            log.warn("Outputs of " + jobID + " not parsed, set to " + GaswStatus.ERROR);
+
+        } catch (DAOException e) {
+            log.error("Failed to mark the unparsed job " + jobID, e);
+        }
+    }
+}
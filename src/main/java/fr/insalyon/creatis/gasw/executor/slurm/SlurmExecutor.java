@@ -10,6 +10,9 @@ import fr.insalyon.creatis.gasw.executor.slurm.config.Constants;
 import fr.insalyon.creatis.gasw.executor.slurm.config.json.ConfigBuilder;
 import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Config;
 import fr.insalyon.creatis.gasw.executor.slurm.internals.SlurmManager;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.metrics.Metrics;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.SessionPool;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.SshContext;
 import fr.insalyon.creatis.gasw.plugin.ExecutorPlugin;
 import lombok.NoArgsConstructor;
 import net.xeoh.plugins.base.annotations.PluginImplementation;
@@ -32,6 +35,7 @@ public class SlurmExecutor implements ExecutorPlugin {
             final ConfigBuilder configBuilder = new ConfigBuilder(Constants.PLUGIN_CONFIG);
             final Config config = configBuilder.get();
 
+            SshContext.start(config);
             manager = new SlurmManager(GaswConfiguration.getInstance().getSimulationID(), config);
             manager.init();
 
@@ -48,14 +52,22 @@ public class SlurmExecutor implements ExecutorPlugin {
 
     @Override
     public String submit() throws GaswException {
-        System.err.println("je fais une demande de submit ici");
         return submitter.submit();
     }
 
+    /**
+     * Order matters: the completions still pending read the remote files and use ssh,
+     * so the working dir is removed and ssh closed only once they are all finalized and parsed
+     * (or given up after shutdownTimeout, their jobs are then set to ERROR).
+     */
     @Override
     public void terminate() throws GaswException {
-        manager.destroy();
-        // Gasw
         SlurmMonitor.getInstance().finish();
+        ParserExecutor.shutdown();
+        JobStore.shutdown();
+        manager.destroy();
+        SessionPool.shutdown();
+        SshContext.stop();
+        Metrics.shutdown();
     }
 }
@@ -0,0 +1,239 @@
+package fr.insalyon.creatis.gasw.executor.slurm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.insalyon.creatis.gasw.bean.Job;
+import fr.insalyon.creatis.gasw.dao.DAOException;
+import fr.insalyon.creatis.gasw.execution.GaswStatus;
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Config;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.ArtifactDownloader;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.ExitCodeReader;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.LogSync;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.SlurmJob;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Finish the terminated jobs out of the monitor thread.
+ * Completions are pushed on a lock free queue and drained in batches of finalizerBatchSize:
+ * the exit codes of a batch are read in one round trip, the jobs are written to the database in one flush,
+ * their outputs are downloaded as one archive, then parsed.
+ * The drain runs on its own thread, started only when completions are waiting.
+ */
+@Log4j
+public class SlurmFinalizer {
+
+    /* value in millis, the exit file of a job may show up late on a shared filesystem */
+    final private static long               EXIT_CODE_RETRY_DELAY = 2000;
+
+    final private JobStore                  store;
+    final private Config                    config;
+    final private ParserExecutor            parsers;
+    final private LogSync                   logSync;
+    final private Queue<Completion>         completions = new ConcurrentLinkedQueue<>();
+    final private AtomicInteger             pending = new AtomicInteger();
+    final private AtomicBoolean             scheduled = new AtomicBoolean(false);
+    final private ExecutorService           executor;
+
+    /* set when shutdown() gave up waiting, the drain stops taking completions */
+    private volatile boolean                aborted = false;
+
+    /**
+     * @param logSync fetches the tail of the logs synced while the jobs ran, may be null
+     */
+    public SlurmFinalizer(final JobStore store, final Config config, final LogSync logSync) {
+        this.store = store;
+        this.config = config;
+        this.logSync = logSync;
+        this.parsers = ParserExecutor.getInstance(config, store);
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            final Thread thread = new Thread(r, "slurm-finalizer");
+
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param status final status of the job, as seen by the monitor
+     */
+    public void add(final SlurmJob job, final GaswStatus status) {
+        completions.add(new Completion(job, status));
+        pending.incrementAndGet();
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    /**
+     * @return number of completions waiting to be finalized
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    /**
+     * Finalize the completions already queued, then stop the drain thread.
+     * Past shutdownTimeout the drain is interrupted and the jobs not finalized yet are set to ERROR,
+     * the working dir and the sessions they need are about to be removed.
+     */
+    public void shutdown() {
+        final long timeout = config.getOptions().getShutdownTimeout();
+        Completion left;
+
+        executor.shutdown();
+        try {
+            if (executor.awaitTermination(timeout, TimeUnit.SECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.error(getPendingCount() + " completions not finalized after " + timeout + "s, giving up");
+        aborted = true;
+        executor.shutdownNow();
+        while ((left = completions.poll()) != null) {
+            abandon(left.getJob());
+            pending.decrementAndGet();
+        }
+    }
+
+    private void abandon(final SlurmJob sJob) {
+        try {
+            final Job job = store.get(sJob.getData().getJobID());
+
+            job.setStatus(GaswStatus.ERROR);
+            store.update(job);
+            log.warn("Job " + sJob.getData().getJobID() + " not finalized, set to " + GaswStatus.ERROR);
+
+        } catch (DAOException e) {
+            log.error("Failed to mark the unfinalized job " + sJob.getData().getJobID(), e);
+        }
+    }
+
+    private void drain() {
+        final int batchSize = Math.max(1, config.getOptions().getFinalizerBatchSize());
+        final List<Completion> batch = new ArrayList<>(batchSize);
+        Completion next;
+
+        /* a completion added from now on schedules a new drain */
+        scheduled.set(false);
+        while ( ! aborted && (next = completions.poll()) != null) {
+            batch.add(next);
+            if (batch.size() == batchSize) {
+                finalizeBatch(batch);
+                batch.clear();
+            }
+        }
+        if (aborted) {
+            batch.forEach(completion -> abandon(completion.getJob()));
+            pending.addAndGet(- batch.size());
+        } else if ( ! batch.isEmpty()) {
+            finalizeBatch(batch);
+        }
+    }
+
+    /**
+     * A failure only loses its own step (or job), the pending count is always given back.
+     */
+    private void finalizeBatch(final List<Completion> batch) {
+        final List<SlurmJob> updated = new ArrayList<>();
+
+        try {
+            final Map<SlurmJob, Integer> exitCodes = readExitCodes(batch);
+
+            for (final Completion completion : batch) {
+                final SlurmJob sJob = completion.getJob();
+
+                try {
+                    final Job job = store.get(sJob.getData().getJobID());
+
+                    if (exitCodes.get(sJob) != null) {
+                        job.setExitCode(exitCodes.get(sJob));
+                        /* a job the scheduler reports failed stays failed, whatever its exit file says */
+                        job.setStatus(job.getExitCode() == 0 && completion.getStatus() != GaswStatus.ERROR
+                            ? GaswStatus.COMPLETED : GaswStatus.ERROR);
+                    } else if (exitCodes.containsKey(sJob)) {
+                        /* never report a success that couldn't be checked */
+                        log.warn("Exit code of " + sJob.getData().getJobID() + " unreadable, set to " + GaswStatus.ERROR);
+                        job.setStatus(GaswStatus.ERROR);
+                    } else {
+                        job.setStatus(completion.getStatus());
+                    }
+                    log.debug("Job " + sJob.getData().getJobID() + " finalized as " + job.getStatus());
+
+                    store.update(job);
+                    updated.add(sJob);
+
+                } catch (DAOException | RuntimeException e) {
+                    log.error("Failed to finalize " + sJob.getData().getJobID(), e);
+                }
+            }
+            /* the parsers read the job back from the database */
+            store.flush();
+            if (logSync != null) {
+                logSync.complete(updated);
+            }
+            if (config.getOptions().isBatchDownload()) {
+                new ArtifactDownloader(config).download(updated);
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to finalize a batch of " + batch.size() + " jobs", e);
+        } finally {
+            for (final SlurmJob sJob : updated) {
+                try {
+                    parsers.execute(sJob);
+                } catch (RuntimeException e) {
+                    log.error("Failed to start the output parser of " + sJob.getData().getJobID(), e);
+                }
+            }
+            pending.addAndGet(- batch.size());
+        }
+        log.info("Finalized " + batch.size() + " jobs, output parsers " + parsers.getActiveCount() + " active / "
+            + parsers.getQueuedCount() + " queued");
+    }
+
+    /**
+     * Only COMPLETED and ERROR jobs have an exit code.
+     * The unreadable ones are read once more after EXIT_CODE_RETRY_DELAY.
+     * @return exit code per job (null if unreadable), read in one round trip (two with retries)
+     */
+    private Map<SlurmJob, Integer> readExitCodes(final List<Completion> batch) {
+        final ExitCodeReader reader = new ExitCodeReader(config);
+        final Map<SlurmJob, Integer> exitCodes = reader.read(batch.stream()
+            .filter(completion -> completion.getStatus() == GaswStatus.ERROR || completion.getStatus() == GaswStatus.COMPLETED)
+            .map(Completion::getJob)
+            .toList());
+        final List<SlurmJob> unreadable = exitCodes.entrySet().stream()
+            .filter(entry -> entry.getValue() == null)
+            .map(Map.Entry::getKey)
+            .toList();
+
+        if ( ! unreadable.isEmpty()) {
+            try {
+                Thread.sleep(EXIT_CODE_RETRY_DELAY);
+                exitCodes.putAll(reader.read(unreadable));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return exitCodes;
+    }
+
+    @RequiredArgsConstructor @Getter
+    private static class Completion {
+
+        final private SlurmJob      job;
+        final private GaswStatus    status;
+    }
+}
@@ -1,6 +1,5 @@
 package fr.insalyon.creatis.gasw.executor.slurm;
 
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -11,8 +10,15 @@ import fr.insalyon.creatis.gasw.dao.DAOException;
 import fr.insalyon.creatis.gasw.execution.GaswMonitor;
 import fr.insalyon.creatis.gasw.execution.GaswStatus;
 import fr.insalyon.creatis.gasw.executor.slurm.config.Constants;
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Options;
 import fr.insalyon.creatis.gasw.executor.slurm.internals.SlurmJob;
 import fr.insalyon.creatis.gasw.executor.slurm.internals.SlurmManager;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.metrics.Metrics;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.status.JobState;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.status.PollInterval;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.status.StatusEngine;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.status.StatusSnapshot;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.status.StatusWatcher;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.log4j.Log4j;
@@ -20,12 +26,17 @@ import lombok.extern.log4j.Log4j;
 @Log4j
 final public class SlurmMonitor extends GaswMonitor {
 
+    final private static long   WATCHER_RESTART_DELAY = 60000;
+
     private static SlurmMonitor instance;
 
-    final private List<SlurmJob>      finishedJobs;
     @Getter @Setter
     private SlurmManager        manager;
     private boolean 		    stop;
+    private StatusWatcher       watcher;
+    private long                nextWatcherStart = 0;
+    private PollInterval        pollInterval;
+    private SlurmFinalizer      finalizer;
 
     public synchronized static SlurmMonitor getInstance() {
         if (instance == null) {
@@ -37,52 +48,135 @@ final public class SlurmMonitor extends GaswMonitor {
 
     private SlurmMonitor() {
         super();
-        finishedJobs = new ArrayList<>();
         stop = false;
     }
 
-    private void statusChecker() {
-        final List<SlurmJob> jobs = manager.getUnfinishedJobs();
+    /**
+     * @return delay before the next round, see PollInterval
+     */
+    private long statusChecker() {
+        final long cycleStart = System.nanoTime();
+        final List<SlurmJob> jobs = List.copyOf(manager.getUnfinishedJobs());
+        final long startedAt = System.currentTimeMillis();
+        final StatusSnapshot snapshot = new StatusEngine(manager.getConfig()).poll(jobs);
+        final long latency = System.currentTimeMillis() - startedAt;
+        boolean changed = false;
+        boolean allPending = true;
 
         for (final SlurmJob j : jobs) {
-            final GaswStatus stus = j.getStatus();
-
-            System.err.println("job : " + j.getData().getJobID() + " : " + stus.toString());
-            if (stus != GaswStatus.RUNNING && stus != GaswStatus.QUEUED && stus != GaswStatus.UNDEFINED && stus != GaswStatus.NOT_SUBMITTED) {
-                j.setTerminated(true);
-                finishedJobs.add(j);
-            } else if (stus ==  GaswStatus.RUNNING) {
-                updateJob(j.getData().getJobID(), stus);
+            final JobState previous = j.getSchedulerState();
+            final JobState state = snapshot.get(j.getData().getSlurmJobID());
+            final GaswStatus stus;
+
+            if (state != null) {
+                changed |= previous == null || ! previous.getState().equals(state.getState())
+                    || state.getState().equals("COMPLETING");
+            }
+            /* a job missing from this snapshot must not keep the state of an older one */
+            j.applyState(state);
+            stus = check(j);
+            allPending &= stus == GaswStatus.QUEUED || stus == GaswStatus.NOT_SUBMITTED;
+        }
+        manager.getCancellations().confirm();
+        Metrics.timer("monitor.poll").record(latency * 1000000);
+        Metrics.timer("monitor.cycle").recordSince(cycleStart);
+        return getPollInterval().next(changed, allPending, latency);
+    }
+
+    /**
+     * Apply the transitions streamed by the watcher, waiting for them at most one sleep time.
+     * Jobs without slurm ID (not submitted yet, failed submission) are unknown to the watcher,
+     * only their local status is checked.
+     */
+    private void eventChecker() throws InterruptedException {
+        for (final JobState state : watcher.take(GaswConfiguration.getInstance().getDefaultSleeptime())) {
+            final SlurmJob j = manager.getJobBySchedulerID(state.getSchedulerJobID());
+
+            Metrics.meter("monitor.events").mark();
+            if (j != null && ! j.isTerminated()) {
+                j.applyState(state);
+                check(j);
+            }
+        }
+        for (final SlurmJob j : manager.getUnfinishedJobs()) {
+            if (j.getData().getSlurmJobID() == null) {
+                check(j);
             }
         }
+        manager.getCancellations().confirm();
+    }
+
+    private GaswStatus check(final SlurmJob j) {
+        final GaswStatus stus = j.getStatus();
+
+        if (stus != GaswStatus.RUNNING && stus != GaswStatus.QUEUED && stus != GaswStatus.UNDEFINED && stus != GaswStatus.NOT_SUBMITTED) {
+            j.setTerminated(true);
+            getFinalizer().add(j, stus);
+        } else if (stus ==  GaswStatus.RUNNING) {
+            updateJob(j.getData().getJobID(), stus);
+        }
+        return stus;
+    }
+
+    private synchronized SlurmFinalizer getFinalizer() {
+        if (finalizer == null) {
+            finalizer = new SlurmFinalizer(getJobStore(), manager.getConfig(), manager.getLogSync());
+            Metrics.gauge("jobs.finalizing", finalizer::getPendingCount);
+        }
+        return finalizer;
+    }
+
+    public JobStore getJobStore() {
+        return JobStore.getInstance(manager.getConfig(), jobDAO);
+    }
+
+    private PollInterval getPollInterval() {
+        if (pollInterval == null) {
+            pollInterval = new PollInterval(manager.getConfig().getOptions(), GaswConfiguration.getInstance().getDefaultSleeptime());
+        }
+        return pollInterval;
+    }
+
+    /**
+     * @return true if the status changes are streamed by the watcher, false if they must be polled.
+     * A dead watcher is restarted but the round is still polled, so no transition is lost meanwhile.
+     */
+    private boolean isWatching() {
+        final Options options = manager.getConfig().getOptions();
+
+        if ( ! options.isUseStatusWatcher() || options.isUsePBS()) {
+            return false;
+        }
+        if (watcher == null) {
+            watcher = new StatusWatcher(manager.getConfig(), manager.getWorkingDir());
+        }
+        if (watcher.isAlive()) {
+            return true;
+        }
+        if (System.currentTimeMillis() >= nextWatcherStart) {
+            try {
+                watcher.start();
+            } catch (GaswException e) {
+                log.warn("Status watcher unavailable, polling the status instead");
+                nextWatcherStart = System.currentTimeMillis() + WATCHER_RESTART_DELAY;
+            }
+        }
+        return false;
     }
 
     @Override
     public void run() {
         while (!stop) {
-            statusChecker();
             try {
-                while (hasFinishedJobs()) {
-                    final SlurmJob sJob = pullFinishedJobID();
-                    final GaswStatus status = sJob.getStatus();
-                    final Job job = jobDAO.getJobByID(sJob.getData().getJobID());
-                    
-                    if (status == GaswStatus.ERROR || status == GaswStatus.COMPLETED) {
-                        job.setExitCode(sJob.getExitCode());
-                        job.setStatus(job.getExitCode() == 0 ? GaswStatus.COMPLETED : GaswStatus.ERROR);
-                    } else {
-                        job.setStatus(status);
-                    }
-                    System.err.println("job : " + sJob.getData().getJobID() + " final : " + job.getStatus());
-                    
-                    jobDAO.update(job);
-                    new SlurmOutputParser(sJob).start();
+                if (isWatching()) {
+                    eventChecker();
+                } else {
+                    Thread.sleep(statusChecker());
+                }
+            } catch (InterruptedException ex) {
+                if ( ! stop) {
+                    log.error(ex);
                 }
-
-                Thread.sleep(GaswConfiguration.getInstance().getDefaultSleeptime());
-
-            } catch (GaswException | DAOException | InterruptedException ex) {
-                log.error(ex);
             }
         }
     }
@@ -95,54 +189,66 @@ final public class SlurmMonitor extends GaswMonitor {
 
         add(job);
         log.info("Adding job: " + jobID);
-        try {
-            job.setQueued(new Date());
-            jobDAO.update(job);
-
-        } catch (DAOException ex) {
-            System.err.println(ex.getMessage());
-        }
+        job.setQueued(new Date());
+        getJobStore().update(job);
     }
 
-    public SlurmJob pullFinishedJobID() {
-        final SlurmJob lastJob = finishedJobs.get(0);
-
-        finishedJobs.remove(lastJob);
-        return lastJob;
-    }
-
-    public boolean hasFinishedJobs() {
-        return ! finishedJobs.isEmpty();
-    }
-
-    public synchronized void addFinishedJob(final SlurmJob job) {
-        finishedJobs.add(job);
+    public void addFinishedJob(final SlurmJob job) {
+        getFinalizer().add(job, job.getStatus());
     }
 
+    /**
+     * Stop the monitor thread then finalize the completions it queued.
+     */
     public synchronized void finish() {
         if (instance != null) {
             log.trace("Monitor is off !");
             instance.stop = true;
+            if (instance != Thread.currentThread()) {
+                instance.interrupt();
+                try {
+                    instance.join(GaswConfiguration.getInstance().getDefaultSleeptime());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (instance.watcher != null) {
+                instance.watcher.stop();
+            }
+            if (instance.finalizer != null) {
+                instance.finalizer.shutdown();
+            }
             instance = null;
         }
     }
 
     public void updateJob(final String jobID, final GaswStatus status) {
         try {
-            final Job job = jobDAO.getJobByID(jobID);
+            final Job job = getJobStore().get(jobID);
 
             if (job.getStatus() != status) {
                 job.setStatus(status);
-                jobDAO.update(job);
+                getJobStore().update(job);
             }
         } catch (DAOException e) {
             log.error(e);
         }
     }
 
+    /**
+     * Sent with the other kills of the same cancelWindow, see CancellationQueue.
+     * The job is terminated by the next status round reporting it CANCELLED.
+     */
     @Override
-    protected void kill(Job job) {
-        // to implements
+    protected void kill(final Job job) {
+        final SlurmJob j = manager.getJob(job.getId());
+
+        if (j == null) {
+            log.warn("Cannot kill the unknown job " + job.getId());
+            return;
+        }
+        log.info("Killing job: " + job.getId());
+        manager.getCancellations().cancel(j);
     }
 
     @Override
@@ -18,6 +18,10 @@ public class SlurmOutputParser extends GaswOutputParser{
         this.job = job;
     }
 
+    public SlurmJob getSlurmJob() {
+        return job;
+    }
+
     @Override
     public GaswOutput getGaswOutput() throws GaswException {
         final File stdOut = getAppStdFile(GaswConstants.OUT_EXT, GaswConstants.OUT_ROOT);
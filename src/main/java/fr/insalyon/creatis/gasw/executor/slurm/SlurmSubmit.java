@@ -8,7 +8,6 @@ import fr.insalyon.creatis.gasw.GaswInput;
 import fr.insalyon.creatis.gasw.bean.Job;
 import fr.insalyon.creatis.gasw.dao.DAOException;
 import fr.insalyon.creatis.gasw.dao.DAOFactory;
-import fr.insalyon.creatis.gasw.dao.JobDAO;
 import fr.insalyon.creatis.gasw.execution.GaswStatus;
 import fr.insalyon.creatis.gasw.execution.GaswSubmit;
 import fr.insalyon.creatis.gasw.executor.slurm.internals.SlurmManager;
@@ -43,13 +42,13 @@ public class SlurmSubmit extends GaswSubmit {
 
     private void wrappedSubmit(final String jobID) throws GaswException {
         try {
-            // GAWS DAO
-            final JobDAO jobDAO = DAOFactory.getDAOFactory().getJobDAO();
-            final Job job = jobDAO.getJobByID(jobID);
+            // GAWS DAO, written behind
+            final JobStore store = JobStore.getInstance(manager.getConfig(), DAOFactory.getDAOFactory().getJobDAO());
+            final Job job = store.get(jobID);
 
             job.setStatus(GaswStatus.QUEUED);
             job.setDownload(new Date());
-            jobDAO.update(job);
+            store.update(job);
             manager.submitter(job.getId(), "bash " + GaswConstants.SCRIPT_ROOT + "/" + scriptName);
 
         } catch (DAOException e) {
@@ -4,6 +4,8 @@ public class Constants {
 
     public final static String PLUGIN_CONFIG = "/var/www/cgi-bin/m2Server-gasw3/conf/slurm.conf";
     public final static String SPLIT_REGEX = "\\s+";
+    /* field separator of the --parsable2 outputs, see RemoteStream.getRow(index, delimiter) */
+    public final static char PARSABLE_SEPARATOR = '|';
 
     // GASW
     public final static String EXECUTOR_NAME = "Slurm";
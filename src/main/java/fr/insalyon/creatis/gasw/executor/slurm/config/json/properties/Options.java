@@ -8,17 +8,21 @@ import lombok.NoArgsConstructor;
 @Getter @NoArgsConstructor
 public class Options {
     
-    /* value in millis */
+    /* value in seconds, maximum duration of a remote command, channel opening included */
     @JsonProperty(value = "commandExecutionTimeout")
-    private int commandExecutionTimeout = 10;
+    private int commandExecutionTimeout = 60;
 
-    /* value in millis */
+    /* value in millis, connection, authentication, wait for a pooled session or for a silent stream */
     @JsonProperty(value = "sshEventTimeout")
-    private int sshEventTimeout = 1000;
+    private int sshEventTimeout = 10000;
 
     @JsonProperty(value = "statusRetry")
     private int statusRetry = 10;
 
+    /* maximum number of jobs asked in one status command */
+    @JsonProperty(value = "statusBatchSize")
+    private int statusBatchSize = 500;
+
     /* value in millis */
     @JsonProperty(value = "statusRetryWait")
     private int statusRetryWait = 10;
@@ -29,4 +33,144 @@ public class Options {
 
     @JsonProperty("timeToBeReady")
     private int timeToBeReady = 120;
+
+    /* maximum number of jobs bundled in one staging archive */
+    @JsonProperty(value = "stagingWaveSize")
+    private int stagingWaveSize = 200;
+
+    /* number of workers of each submission pipeline stage */
+    @JsonProperty(value = "pipelineConcurrency")
+    private int pipelineConcurrency = 4;
+
+    /* number of waiting items per submission pipeline stage */
+    @JsonProperty(value = "pipelineQueueSize")
+    private int pipelineQueueSize = 64;
+
+    /* value in millis, time to wait for more jobs before submitting them as an array, 0 disable the arrays */
+    @JsonProperty(value = "arrayWindow")
+    private int arrayWindow = 0;
+
+    /* maximum number of jobs in one array, keep it under the slurm MaxArraySize */
+    @JsonProperty(value = "arrayMaxSize")
+    private int arrayMaxSize = 1000;
+
+    /* maximum number of ssh sessions borrowed at once for commands, the status watcher opens one more */
+    @JsonProperty(value = "maxSessions")
+    private int maxSessions = 8;
+
+    /* value in seconds, idle pooled sessions older than this are closed */
+    @JsonProperty(value = "sessionIdleTimeout")
+    private int sessionIdleTimeout = 300;
+
+    /* parallel exec channels on one session, keep it under the sshd MaxSessions */
+    @JsonProperty(value = "maxChannelsPerSession")
+    private int maxChannelsPerSession = 10;
+
+    /* number of NIO workers of the shared ssh client, 0 keep the sshd default */
+    @JsonProperty(value = "sshIoThreads")
+    private int sshIoThreads = 0;
+
+    /* value in seconds, 0 disable the keepalive */
+    @JsonProperty(value = "keepAliveInterval")
+    private int keepAliveInterval = 30;
+
+    /* stream the status changes from a watcher running on the cluster instead of polling (slurm only) */
+    @JsonProperty(value = "useStatusWatcher")
+    private boolean useStatusWatcher = false;
+
+    /* value in seconds, time between two sacct rounds of the watcher */
+    @JsonProperty(value = "watcherInterval")
+    private int watcherInterval = 5;
+
+    /* value in millis, fastest status polling, used while jobs change state */
+    @JsonProperty(value = "pollIntervalMin")
+    private int pollIntervalMin = 1000;
+
+    /* value in millis, slowest status polling, reached while every job is pending */
+    @JsonProperty(value = "pollIntervalMax")
+    private int pollIntervalMax = 60000;
+
+    /* number of terminated jobs finalized together (exit codes, database, outputs) */
+    @JsonProperty(value = "finalizerBatchSize")
+    private int finalizerBatchSize = 200;
+
+    /* value in millis, time between two writes of the pending job updates to the database */
+    @JsonProperty(value = "daoFlushInterval")
+    private int daoFlushInterval = 1000;
+
+    /* number of pending job updates that triggers a write before the interval */
+    @JsonProperty(value = "daoFlushSize")
+    private int daoFlushSize = 500;
+
+    /* number of output parsers running at the same time */
+    @JsonProperty(value = "parserThreads")
+    private int parserThreads = 4;
+
+    /* output parsers waiting for a thread, the finalizer runs them itself beyond */
+    @JsonProperty(value = "parserQueueSize")
+    private int parserQueueSize = 256;
+
+    /* fetch the outputs of the finished jobs as one compressed tar per batch, per file scp remains the fallback */
+    @JsonProperty(value = "batchDownload")
+    private boolean batchDownload = true;
+
+    /* value in seconds, maximum duration of a streamed transfer */
+    @JsonProperty(value = "transferTimeout")
+    private int transferTimeout = 600;
+
+    /* value in seconds, copy the new bytes of the logs of the running jobs, 0 disable it */
+    @JsonProperty(value = "logSyncInterval")
+    private int logSyncInterval = 0;
+
+    /* maximum bytes of one log fetched per round */
+    @JsonProperty(value = "logSyncChunk")
+    private int logSyncChunk = 1048576;
+
+    /* value in bytes, files up to this size are moved together in one tar stream */
+    @JsonProperty(value = "transferSmallFile")
+    private long transferSmallFile = 65536;
+
+    /* value in bytes, text files up to this size are gzipped on the fly, bigger files go through plain scp */
+    @JsonProperty(value = "transferLargeFile")
+    private long transferLargeFile = 67108864;
+
+    /* check the size of the uploaded files on the remote in one command */
+    @JsonProperty(value = "transferVerify")
+    private boolean transferVerify = true;
+
+    /* also compare the sha256 of the uploaded files, costs a read of every file on the remote */
+    @JsonProperty(value = "transferChecksum")
+    private boolean transferChecksum = false;
+
+    /* value in bytes, longer lines of a streamed command output are handed in several chunks */
+    @JsonProperty(value = "streamMaxLineLength")
+    private int streamMaxLineLength = 65536;
+
+    /* lines of a streamed command output buffered while the consumer is busy, the channel waits beyond */
+    @JsonProperty(value = "streamBufferLines")
+    private int streamBufferLines = 1024;
+
+    /* value in millis, kill requests gathered before sending them in one scancel/qdel */
+    @JsonProperty(value = "cancelWindow")
+    private int cancelWindow = 2000;
+
+    /* maximum number of job IDs given to one scancel/qdel */
+    @JsonProperty(value = "cancelBatchSize")
+    private int cancelBatchSize = 1000;
+
+    /* value in days, upload cache entries unused for longer are removed when a manager starts, 0 keeps them */
+    @JsonProperty(value = "uploadCacheMaxAge")
+    private int uploadCacheMaxAge = 30;
+
+    /* value in bytes, the least recently used upload cache entries are removed beyond, 0 for no limit */
+    @JsonProperty(value = "uploadCacheMaxSize")
+    private long uploadCacheMaxSize = 10737418240L;
+
+    /* value in seconds, terminate() waits at most this for the pending completions and output parsers */
+    @JsonProperty(value = "shutdownTimeout")
+    private int shutdownTimeout = 1800;
+
+    /* value in bytes, copy buffer of the SCP transfers */
+    @JsonProperty(value = "scpBufferSize")
+    private int scpBufferSize = 65536;
 }
@@ -0,0 +1,36 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals;
+
+import java.util.List;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * One slurm array script running the batch file of every job (written by BatchFile),
+ * the task index selects the job and its own output and error paths.
+ */
+@RequiredArgsConstructor
+public class ArrayBatchFile {
+
+    final private String                name;
+    final private List<SlurmJobData>    jobs;
+    final private StringBuilder         builder = new StringBuilder(1024);
+
+    public StringBuilder build() {
+        builder.append("#!/bin/sh\n")
+            .append("#SBATCH --job-name=" + name + "\n")
+            .append("#SBATCH --array=0-" + (jobs.size() - 1) + "\n")
+            .append("#SBATCH --output=/dev/null\n")
+            .append("#SBATCH --error=/dev/null\n")
+            .append("case $SLURM_ARRAY_TASK_ID in\n");
+
+        for (int i = 0; i < jobs.size(); i++) {
+            final SlurmJobData data = jobs.get(i);
+
+            builder.append(i + ") exec /bin/sh " + data.getBatchPath()
+                + " > " + data.getStdoutPath() + " 2> " + data.getStderrPath() + " ;;\n");
+        }
+        builder.append("esac\n");
+
+        return builder;
+    }
+}
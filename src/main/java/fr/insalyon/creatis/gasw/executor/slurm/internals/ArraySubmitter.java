@@ -0,0 +1,60 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import fr.insalyon.creatis.gasw.GaswException;
+import fr.insalyon.creatis.gasw.execution.GaswStatus;
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Config;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.RemoteCommand;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.items.Sbatch;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteTerminal;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Submit staged jobs as slurm job arrays (one sbatch --array per arrayMaxSize jobs).
+ * Each job gets arrayID_index as slurm job ID, so status and exit codes stay per job.
+ */
+@Log4j @RequiredArgsConstructor
+public class ArraySubmitter {
+
+    final private Config    config;
+    final private String    workingDir;
+    final private String    workflowId;
+
+    /**
+     * @param chunk must be staged (their batch files are already on the cluster)
+     * @return the remote path of the array batch file
+     */
+    public String writeBatch(final RemoteTerminal rt, final List<SlurmJob> chunk) throws GaswException {
+        final String batchPath = workingDir + "/array-" + System.nanoTime() + ".batch";
+        final ArrayBatchFile batchFile = new ArrayBatchFile(workflowId,
+            chunk.stream().map(SlurmJob::getData).toList());
+
+        rt.upload(batchFile.build().toString().getBytes(StandardCharsets.UTF_8), batchPath);
+        return batchPath;
+    }
+
+    /**
+     * @return false if the array was refused, the jobs are left untouched
+     */
+    public boolean submit(final RemoteTerminal rt, final String batchPath, final List<SlurmJob> chunk) {
+        final RemoteCommand command = new Sbatch(batchPath).execute(rt);
+        final String arrayID;
+
+        if (command.failed()) {
+            log.error("Failed to submit the job array " + batchPath + " : "
+                + (command.getOutput() == null ? "" : command.getOutput().getStderr().getContent()));
+            return false;
+        }
+        arrayID = command.result().split(";")[0].trim();
+
+        for (int i = 0; i < chunk.size(); i++) {
+            chunk.get(i).setSchedulerJobID(arrayID + "_" + i);
+            chunk.get(i).setStatus(GaswStatus.SUCCESSFULLY_SUBMITTED);
+        }
+        log.info("Submitted " + chunk.size() + " jobs in the array " + arrayID);
+        return true;
+    }
+}
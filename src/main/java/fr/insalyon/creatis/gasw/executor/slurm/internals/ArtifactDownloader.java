@@ -0,0 +1,54 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import fr.insalyon.creatis.gasw.GaswException;
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Config;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteFile;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteTerminal;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.transfer.TransferEngine;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Fetch the outputs (logs, provenance, batch file) of many finished jobs at once:
+ * the remote side streams one gzipped tar, unpacked locally to the download destinations (see TransferEngine).
+ * Every received file is marked on its job, SlurmJob.download() fetches the others one by one.
+ */
+@Log4j @RequiredArgsConstructor
+public class ArtifactDownloader {
+
+    final private Config    config;
+
+    public void download(final Collection<SlurmJob> jobs) {
+        final Map<RemoteFile, SlurmJob> owners = new LinkedHashMap<>();
+        final RemoteTerminal rt = new RemoteTerminal(config);
+
+        for (final SlurmJob job : jobs) {
+            for (final RemoteFile file : job.getData().getFilesDownload()) {
+                if ( ! job.isDownloaded(file)) {
+                    owners.put(file, job);
+                }
+            }
+        }
+        if (owners.isEmpty()) {
+            return;
+        }
+        try {
+            rt.connect();
+            try {
+                final Set<RemoteFile> received = new TransferEngine(rt, config.getOptions()).downloadArchive(owners.keySet());
+
+                received.forEach(file -> owners.get(file).markDownloaded(file));
+                log.info("Downloaded " + received.size() + "/" + owners.size() + " files in one archive");
+            } finally {
+                rt.disconnect();
+            }
+        } catch (GaswException e) {
+            log.warn("Batched download unavailable, falling back to per file download", e);
+        }
+    }
+}
@@ -22,7 +22,9 @@ public class BatchFile {
     private void doCommon() {
         builder.append("cd " + data.getWorkingDir() + "\n")
             .append(data.getCommand() + "\n")
-            .append("echo $? > " + data.getExitCodePath() + "\n");
+            .append("status=$?\n")
+            .append("echo $status > " + data.getExitCodePath() + "\n")
+            .append("exit $status\n");
     }
 
     private void doSlurm() {
@@ -0,0 +1,200 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import fr.insalyon.creatis.gasw.GaswException;
+import fr.insalyon.creatis.gasw.execution.GaswStatus;
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Config;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.RemoteCommand;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.RemoteCommandAlternative;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.items.Qdel;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.items.Scancel;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.metrics.Metrics;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.status.JobState;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteTerminal;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Kill requests are gathered for cancelWindow millis then sent as one scancel (qdel with PBS)
+ * per cancelBatchSize jobs, all on one session.
+ * Jobs are not terminated here but by the monitor, once a status snapshot reports them ended;
+ * confirm() sends the cancellation again for those still active CONFIRM_DELAY after it.
+ * A job not submitted yet is cancelled locally, one being submitted waits for its scheduler ID:
+ * the runner and the queue both change a NOT_SUBMITTED status with SlurmJob.compareAndSetStatus().
+ */
+@Log4j
+public class CancellationQueue {
+
+    final private static long   CONFIRM_DELAY = 30000;
+    final private static int    MAX_ATTEMPTS = 3;
+
+    final private Config                config;
+    final private Set<SlurmJob>         pending = ConcurrentHashMap.newKeySet();
+    /* jobs whose cancellation was sent, until they are reported ended */
+    final private Map<SlurmJob, Sent>   sent = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService    scheduler;
+    private ScheduledFuture<?>          flush;
+
+    public CancellationQueue(final Config config) {
+        this.config = config;
+    }
+
+    public void cancel(final SlurmJob job) {
+        if ( ! job.isTerminated()) {
+            pending.add(job);
+            schedule();
+        }
+    }
+
+    /**
+     * Cancel the jobs and the pending ones right now, in the calling thread.
+     */
+    public void cancelNow(final Collection<SlurmJob> jobs) {
+        pending.addAll(jobs);
+        flush();
+    }
+
+    /**
+     * Check the cancelled jobs against their last reported state, to call after each status round.
+     */
+    public void confirm() {
+        final long now = System.currentTimeMillis();
+        boolean resend = false;
+
+        for (final Map.Entry<SlurmJob, Sent> entry : sent.entrySet()) {
+            final SlurmJob job = entry.getKey();
+
+            if (job.isTerminated() || isEnded(job.getSchedulerState())) {
+                sent.remove(job);
+            } else if (now - entry.getValue().at >= CONFIRM_DELAY && ! pending.contains(job)) {
+                if (entry.getValue().attempts >= MAX_ATTEMPTS) {
+                    log.warn("Job " + job.getData().getSlurmJobID() + " still active after " + MAX_ATTEMPTS + " cancellations, given up");
+                    sent.remove(job);
+                } else {
+                    pending.add(job);
+                    resend = true;
+                }
+            }
+        }
+        if (resend) {
+            schedule();
+        }
+    }
+
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+            flush = null;
+        }
+    }
+
+    private synchronized void schedule() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "slurm-cancel");
+
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        if (flush == null) {
+            flush = scheduler.schedule(this::flush, Math.max(0, config.getOptions().getCancelWindow()), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Jobs without scheduler ID stay pending: either the monitor terminates them as CANCELLED,
+     * or they are being submitted and are cancelled once they get their ID.
+     */
+    private void flush() {
+        final List<SlurmJob> batch = new ArrayList<>();
+
+        synchronized (this) {
+            flush = null;
+        }
+        for (final SlurmJob job : pending) {
+            if (job.isTerminated()) {
+                pending.remove(job);
+            } else if (job.getData().getSlurmJobID() != null) {
+                /* a concurrent flush (cancelNow) may have taken it already */
+                if (pending.remove(job)) {
+                    batch.add(job);
+                }
+            } else {
+                /* fails if the runner took it meanwhile, it is then cancelled once it gets its ID */
+                job.compareAndSetStatus(GaswStatus.NOT_SUBMITTED, GaswStatus.CANCELLED);
+            }
+        }
+        send(batch);
+        if ( ! pending.isEmpty()) {
+            schedule();
+        }
+    }
+
+    private void send(final List<SlurmJob> jobs) {
+        final int batchSize = Math.max(1, config.getOptions().getCancelBatchSize());
+        final List<String> ids = jobs.stream().map(job -> job.getData().getSlurmJobID()).distinct().toList();
+        final RemoteTerminal rt = new RemoteTerminal(config);
+
+        if (ids.isEmpty()) {
+            return;
+        }
+        for (final SlurmJob job : jobs) {
+            final Sent previous = sent.get(job);
+
+            sent.put(job, new Sent(System.currentTimeMillis(), previous == null ? 1 : previous.attempts + 1));
+        }
+        try {
+            rt.connect();
+            try {
+                for (int i = 0; i < ids.size(); i += batchSize) {
+                    final List<String> chunk = ids.subList(i, Math.min(i + batchSize, ids.size()));
+                    final RemoteCommand command = getCommand(String.join(" ", chunk)).execute(rt);
+
+                    /* failing on jobs already ended is expected, the others are cancelled anyway */
+                    if (command.failed()) {
+                        log.warn("Cancellation of " + chunk.size() + " jobs reported : "
+                            + (command.getOutput() == null ? "no output" : command.getOutput().getStderr().getContent()));
+                    }
+                }
+                Metrics.meter("jobs.cancelled").mark(ids.size());
+                log.info("Cancellation sent for " + ids.size() + " jobs");
+            } finally {
+                rt.disconnect();
+            }
+        } catch (GaswException e) {
+            log.error("Failed to cancel " + ids.size() + " jobs", e);
+        }
+    }
+
+    private RemoteCommand getCommand(final String jobIDs) {
+        return new RemoteCommandAlternative<Qdel, Scancel>(config.getOptions().isUsePBS(),
+            Qdel.class, Scancel.class,
+            jobIDs).getCommand();
+    }
+
+    private boolean isEnded(final JobState state) {
+        final GaswStatus status = state == null ? GaswStatus.UNDEFINED : SlurmJob.convertStatus(state.getState());
+
+        return status != GaswStatus.RUNNING && status != GaswStatus.QUEUED && status != GaswStatus.UNDEFINED;
+    }
+
+    @RequiredArgsConstructor
+    private static class Sent {
+
+        final private long  at;
+        final private int   attempts;
+    }
+}
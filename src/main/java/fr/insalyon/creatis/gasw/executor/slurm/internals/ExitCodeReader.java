@@ -0,0 +1,83 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import fr.insalyon.creatis.gasw.GaswException;
+import fr.insalyon.creatis.gasw.executor.slurm.config.Constants;
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Config;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.RemoteCommand;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.items.CatBulk;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteTerminal;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Exit codes of many jobs in at most one round trip:
+ * - the ExitCode reported by the scheduler in the status snapshot when the job is COMPLETED
+ * - otherwise the exit files written by the batch files, all read by one command
+ */
+@Log4j @RequiredArgsConstructor
+public class ExitCodeReader {
+
+    final private Config    config;
+
+    /**
+     * @return exit code per job, null when it couldn't be read (missing file, garbage, transport failure)
+     */
+    public Map<SlurmJob, Integer> read(final Collection<SlurmJob> jobs) {
+        final Map<SlurmJob, Integer> exitCodes = new HashMap<>();
+        final Map<String, SlurmJob> toRead = new LinkedHashMap<>();
+        final RemoteTerminal rt = new RemoteTerminal(config);
+
+        for (final SlurmJob job : jobs) {
+            final Integer reported = job.getSchedulerState() == null ? null : job.getSchedulerState().getTrustedExitCode();
+
+            exitCodes.put(job, reported);
+            if (reported == null) {
+                toRead.put(job.getData().getWorkingDir() + job.getData().getExitCodePath(), job);
+            }
+        }
+        if (toRead.isEmpty()) {
+            return exitCodes;
+        }
+        try {
+            rt.connect();
+            try {
+                readFiles(rt, toRead, exitCodes);
+            } finally {
+                rt.disconnect();
+            }
+        } catch (GaswException e) {
+            log.error("Failed to read the exit codes of " + toRead.size() + " jobs", e);
+        }
+        return exitCodes;
+    }
+
+    private void readFiles(final RemoteTerminal rt, final Map<String, SlurmJob> toRead, final Map<SlurmJob, Integer> exitCodes) {
+        final RemoteCommand command = new CatBulk(toRead.keySet()).executeLines(rt, line -> {
+            /* the content may contain the separator too, only the first one counts */
+            final int separator = line.indexOf(Constants.PARSABLE_SEPARATOR);
+            final SlurmJob job = separator == -1 ? null : toRead.get(line.substring(0, separator));
+
+            if (job != null) {
+                exitCodes.put(job, parse(line.substring(separator + 1)));
+            }
+            return true;
+        });
+
+        if (command.getOutput() == null) {
+            log.error("Failed to read the exit files of " + toRead.size() + " jobs");
+        }
+    }
+
+    private Integer parse(final String content) {
+        try {
+            return Integer.parseInt(content.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
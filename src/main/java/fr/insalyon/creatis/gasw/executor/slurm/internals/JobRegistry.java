@@ -0,0 +1,120 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fr.insalyon.creatis.gasw.execution.GaswStatus;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.status.JobState;
+
+/**
+ * Thread safe registry of the jobs of a manager.
+ * - lookups by GASW job ID and by scheduler job ID are O(1)
+ * - the jobs are indexed by local status, by activity (not terminated yet)
+ *   and, for the active ones, by the state last reported by the scheduler (RUNNING, PENDING...)
+ * Jobs report their own changes once added, see SlurmJob.setStatus() and SlurmJob.applyState().
+ * The returned collections are live, weakly consistent views: iterating them neither locks nor copies.
+ */
+public class JobRegistry {
+
+    final private Map<String, SlurmJob>             byJobID = new ConcurrentHashMap<>();
+    final private Map<String, SlurmJob>             bySchedulerID = new ConcurrentHashMap<>();
+    final private Map<GaswStatus, Set<SlurmJob>>    byStatus = new ConcurrentHashMap<>();
+    final private Map<String, Set<SlurmJob>>        bySchedulerState = new ConcurrentHashMap<>();
+    final private Set<SlurmJob>                     active = ConcurrentHashMap.newKeySet();
+
+    public void add(final SlurmJob job) {
+        byJobID.put(job.getData().getJobID(), job);
+        job.setRegistry(this);
+        statusChanged(job, null, job.getLocalStatus());
+        if (job.getData().getSlurmJobID() != null) {
+            bySchedulerID.put(job.getData().getSlurmJobID(), job);
+        }
+        if ( ! job.isTerminated()) {
+            active.add(job);
+            schedulerStateChanged(job, null, job.getSchedulerState());
+        }
+    }
+
+    public SlurmJob get(final String jobID) {
+        return byJobID.get(jobID);
+    }
+
+    public SlurmJob getBySchedulerID(final String schedulerJobID) {
+        return bySchedulerID.get(schedulerJobID);
+    }
+
+    /**
+     * @return jobs whose local status is the given one (not the status reported by the scheduler)
+     */
+    public Collection<SlurmJob> getByStatus(final GaswStatus status) {
+        return Collections.unmodifiableSet(index(status));
+    }
+
+    /**
+     * @param state as reported by the scheduler, e.g. RUNNING
+     * @return active jobs whose last reported state is the given one
+     */
+    public Collection<SlurmJob> getBySchedulerState(final String state) {
+        return Collections.unmodifiableSet(stateIndex(state));
+    }
+
+    /**
+     * @return jobs not terminated yet
+     */
+    public Collection<SlurmJob> getActive() {
+        return Collections.unmodifiableSet(active);
+    }
+
+    public int size() {
+        return byJobID.size();
+    }
+
+    void statusChanged(final SlurmJob job, final GaswStatus previous, final GaswStatus current) {
+        if (previous != null) {
+            index(previous).remove(job);
+        }
+        index(current).add(job);
+    }
+
+    void schedulerIDChanged(final SlurmJob job, final String previous, final String current) {
+        if (previous != null) {
+            bySchedulerID.remove(previous, job);
+        }
+        if (current != null) {
+            bySchedulerID.put(current, job);
+        }
+    }
+
+    /**
+     * Only the active jobs are indexed.
+     */
+    void schedulerStateChanged(final SlurmJob job, final JobState previous, final JobState current) {
+        if (previous != null) {
+            stateIndex(previous.getState()).remove(job);
+        }
+        if (current != null && active.contains(job)) {
+            stateIndex(current.getState()).add(job);
+        }
+    }
+
+    void terminationChanged(final SlurmJob job, final boolean terminated) {
+        if (terminated) {
+            active.remove(job);
+            schedulerStateChanged(job, job.getSchedulerState(), null);
+        } else {
+            active.add(job);
+            schedulerStateChanged(job, null, job.getSchedulerState());
+        }
+    }
+
+    private Set<SlurmJob> index(final GaswStatus status) {
+        return byStatus.computeIfAbsent(status, k -> ConcurrentHashMap.newKeySet());
+    }
+
+    private Set<SlurmJob> stateIndex(final String state) {
+        return bySchedulerState.computeIfAbsent(state, k -> ConcurrentHashMap.newKeySet());
+    }
+}
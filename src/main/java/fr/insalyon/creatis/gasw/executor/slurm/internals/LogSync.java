@@ -0,0 +1,244 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import fr.insalyon.creatis.gasw.GaswException;
+import fr.insalyon.creatis.gasw.executor.slurm.config.Constants;
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Config;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteFile;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteStream;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteTerminal;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Incremental copy of the stdout/stderr of the running jobs.
+ * The local copy is the offset: every logSyncInterval only the bytes beyond it are fetched,
+ * at most logSyncChunk per file, for all the files in one command whose output is
+ * "path|offset|length|size\n" followed by the length bytes.
+ * When a job ends, complete() fetches the tail, the logs fully received are not downloaded again.
+ * Rounds never overlap (the offsets are read from the local files), complete() waits for the running one.
+ */
+@Log4j
+public class LogSync {
+
+    final private static long   MAX_BUFFERED = 64L * 1024 * 1024;
+
+    final private Config                config;
+    final private AtomicLong            syncedBytes = new AtomicLong();
+    final private ReentrantLock         round = new ReentrantLock();
+
+    private ScheduledExecutorService    scheduler;
+
+    public LogSync(final Config config) {
+        this.config = config;
+    }
+
+    /**
+     * Sync the logs of the running jobs every logSyncInterval seconds, nothing is done if it is 0.
+     */
+    public synchronized void start(final Supplier<Collection<SlurmJob>> running) {
+        final long period = config.getOptions().getLogSyncInterval();
+
+        if (period <= 0 || scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "slurm-log-sync");
+
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            /* an exception would cancel all the next rounds silently */
+            try {
+                sync(running.get(), false);
+            } catch (RuntimeException e) {
+                log.error("Log sync round failed", e);
+            }
+        }, period, period, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Fetch what is left of the logs of the terminated jobs, the complete ones are marked as downloaded.
+     */
+    public void complete(final Collection<SlurmJob> jobs) {
+        if (config.getOptions().getLogSyncInterval() > 0) {
+            sync(jobs, true);
+        }
+    }
+
+    /**
+     * @return bytes of logs fetched incrementally since the start
+     */
+    public long getSyncedBytes() {
+        return syncedBytes.get();
+    }
+
+    private void sync(final Collection<SlurmJob> jobs, final boolean complete) {
+        final long chunk = Math.max(1, config.getOptions().getLogSyncChunk());
+        final int group = (int) Math.max(1, MAX_BUFFERED / chunk);
+        final List<Target> targets = new ArrayList<>();
+        final RemoteTerminal rt = new RemoteTerminal(config);
+
+        for (final SlurmJob job : jobs) {
+            for (final RemoteFile file : job.getData().getFilesDownload()) {
+                if (isLog(job.getData(), file) && ! job.isDownloaded(file)) {
+                    targets.add(new Target(job, file, Paths.get(file.getDest())));
+                }
+            }
+        }
+        if (targets.isEmpty()) {
+            return;
+        }
+        round.lock();
+        try {
+            rt.connect();
+            try {
+                for (int i = 0; i < targets.size(); i += group) {
+                    fetch(rt, targets.subList(i, Math.min(i + group, targets.size())), chunk, complete);
+                }
+            } finally {
+                rt.disconnect();
+            }
+        } catch (GaswException | IOException e) {
+            log.warn("Log sync failed, the logs will be downloaded at the end of the jobs", e);
+        } finally {
+            round.unlock();
+        }
+    }
+
+    private boolean isLog(final SlurmJobData data, final RemoteFile file) {
+        return file.getSource().equals(data.getStdoutPath()) || file.getSource().equals(data.getStderrPath());
+    }
+
+    private void fetch(final RemoteTerminal rt, final List<Target> targets, final long chunk, final boolean complete) throws GaswException, IOException {
+        final Map<String, Target> byPath = new LinkedHashMap<>();
+        final StringBuilder args = new StringBuilder();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        for (final Target target : targets) {
+            final long offset = Files.exists(target.local) ? Files.size(target.local) : 0;
+
+            byPath.put(target.file.getSource(), target);
+            args.append(" ").append(target.file.getSource()).append(" ").append(offset);
+        }
+        rt.executeToStream("set --" + args + "\n"
+            + "while [ $# -gt 1 ]; do\n"
+            + "    f=$1; o=$2; shift 2\n"
+            + "    [ -r \"$f\" ] || continue\n"
+            + "    s=$(($(wc -c < \"$f\")))\n"
+            + "    n=$((s - o)); [ $n -lt 0 ] && n=0; [ $n -gt " + chunk + " ] && n=" + chunk + "\n"
+            + "    echo \"$f|$o|$n|$s\"\n"
+            + "    [ $n -gt 0 ] && tail -c +$((o + 1)) \"$f\" | head -c $n\n"
+            + "done\n", output);
+        apply(output.toByteArray(), byPath, complete);
+    }
+
+    private void apply(final byte[] output, final Map<String, Target> byPath, final boolean complete) throws IOException {
+        int position = 0;
+
+        while (position < output.length) {
+            final int eol = indexOf(output, (byte) '\n', position);
+            final String[] header;
+            final Target target;
+            final int length;
+            final long offset;
+            final long size;
+
+            if (eol < 0) {
+                break;
+            }
+            header = new RemoteStream(new String(output, position, eol - position, StandardCharsets.UTF_8))
+                .getRow(0, Constants.PARSABLE_SEPARATOR);
+            if (header.length != 4) {
+                log.warn("Unexpected log sync output, round aborted");
+                return;
+            }
+            try {
+                length = Integer.parseInt(header[2]);
+                offset = Long.parseLong(header[1]);
+                size = Long.parseLong(header[3]);
+            } catch (NumberFormatException e) {
+                log.warn("Unexpected log sync header " + header[0] + ", round aborted");
+                return;
+            }
+            position = eol + 1;
+            if (length < 0 || position + length > output.length) {
+                log.warn("Truncated log sync output, round aborted");
+                return;
+            }
+            target = byPath.get(header[0]);
+            if (target != null) {
+                target.write(output, position, length, offset, size, complete);
+            }
+            position += length;
+        }
+    }
+
+    private int indexOf(final byte[] content, final byte value, final int from) {
+        for (int i = from; i < content.length; i++) {
+            if (content[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @RequiredArgsConstructor
+    private class Target {
+
+        final private SlurmJob      job;
+        final private RemoteFile    file;
+        final private Path          local;
+
+        /**
+         * @param size of the remote file, if it is smaller than the local copy the file was rewritten (requeue)
+         */
+        void write(final byte[] content, final int from, final int length, final long offset, final long size, final boolean complete) throws IOException {
+            if (size < offset) {
+                Files.deleteIfExists(local);
+                return;
+            }
+            /* the local copy moved since the offset was read, these bytes are not the next ones */
+            if ((Files.exists(local) ? Files.size(local) : 0) != offset) {
+                return;
+            }
+            if (local.getParent() != null) {
+                Files.createDirectories(local.getParent());
+            }
+            try (OutputStream out = Files.newOutputStream(local, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                out.write(content, from, length);
+            }
+            syncedBytes.addAndGet(length);
+            if (complete && offset + length == size) {
+                job.markDownloaded(file);
+            }
+        }
+    }
+}
@@ -1,17 +1,24 @@
 package fr.insalyon.creatis.gasw.executor.slurm.internals;
 
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import fr.insalyon.creatis.gasw.GaswException;
 import fr.insalyon.creatis.gasw.execution.GaswStatus;
 import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.RemoteCommand;
 import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.RemoteCommandAlternative;
-import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.items.Cat;
 import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.items.Qsub;
 import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.items.Sbatch;
 import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.items.Scontrol;
 import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.items.Tracejob;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.metrics.Metrics;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.status.JobState;
 import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteFile;
-import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteOutput;
 import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteTerminal;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.transfer.TransferEngine;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.Setter;
@@ -22,51 +29,134 @@ public class SlurmJob {
 
     @Getter
     final private SlurmJobData  data;
+    @Getter
+    final private long          createdAt = System.currentTimeMillis();
+    /* outputs already fetched by the ArtifactDownloader */
+    final private Set<RemoteFile> downloaded = ConcurrentHashMap.newKeySet();
 
     @Getter
-    private boolean             terminated = false;
-    private GaswStatus          status = GaswStatus.NOT_SUBMITTED;
+    private volatile boolean    terminated = false;
+    /* inputs and batch file already uploaded by the Stager */
+    @Getter
+    private boolean             staged = false;
+    private volatile GaswStatus status = GaswStatus.NOT_SUBMITTED;
 
-    private void createBatchFile() throws GaswException {
-        final BatchFile batchFile = new BatchFile(data);
-        final RemoteOutput output;
+    /* last state reported by the scheduler for this job */
+    @Getter
+    private JobState            schedulerState;
+    /* consecutive status requests without answer, the job is STALLED after statusRetry of them */
+    private int                 statusMisses = 0;
+    private long                nextStatusRequest = 0;
+    /* notified of the status, scheduler ID and termination changes */
+    @Setter(AccessLevel.PACKAGE)
+    private JobRegistry         registry;
+
+    public synchronized void setStatus(final GaswStatus status) {
+        final GaswStatus previous = this.status;
+
+        this.status = status;
+        if (registry != null) {
+            registry.statusChanged(this, previous, status);
+        }
+    }
+
+    /**
+     * Change the status only if it is still the expected one, for the transitions
+     * racing between threads (submission versus cancellation).
+     * @return false if the status was changed meanwhile
+     */
+    public synchronized boolean compareAndSetStatus(final GaswStatus expected, final GaswStatus status) {
+        if (this.status != expected) {
+            return false;
+        }
+        setStatus(status);
+        return true;
+    }
+
+    public synchronized void setTerminated(final boolean terminated) {
+        this.terminated = terminated;
+        if (registry != null) {
+            registry.terminationChanged(this, terminated);
+        }
+    }
 
-        output = RemoteTerminal.oneCommand(data.getConfig(), "echo -en '" + batchFile.build().toString() + "' > " + data.getWorkingDir() + data.getJobID() + ".batch");
+    public synchronized void setSchedulerJobID(final String schedulerJobID) {
+        final String previous = data.getSlurmJobID();
 
-        if ( output == null || output.getExitCode() != 0 || ! output.getStderr().getContent().isEmpty()) {
-            System.out.println(output.getStderr().getContent());
+        data.setSlurmJobID(schedulerJobID);
+        if (previous == null && schedulerJobID != null) {
+            Metrics.meter("jobs.submitted").mark();
+        }
+        if (registry != null) {
+            registry.schedulerIDChanged(this, previous, schedulerJobID);
+        }
+    }
+
+    /**
+     * @return the status known locally, without asking the scheduler
+     */
+    GaswStatus getLocalStatus() {
+        return status;
+    }
+
+    /**
+     * The script is written from memory on the remote, no shell is involved.
+     */
+    private void createBatchFile(final RemoteTerminal rt) throws GaswException {
+        final BatchFile batchFile = new BatchFile(data);
+
+        try {
+            rt.upload(batchFile.build().toString().getBytes(StandardCharsets.UTF_8), data.getBatchPath());
+        } catch (GaswException e) {
             throw new GaswException("Impossible to create the batch file");
         }
     }
 
     /**
-     * Upload all the data to the job directory.
+     * Upload all the data to the job directory and write the batch file, on the same session.
+     * The TransferEngine picks the strategy of each file.
      * @throws GaswException
      */
     public void prepare() throws GaswException {
         final RemoteTerminal rt = new RemoteTerminal(data.getConfig());
 
         rt.connect();
-        for (final RemoteFile file : data.getFilesUpload()) {
-            rt.upload(file.getSource(), file.getDest());
+        try {
+            new TransferEngine(rt, data.getConfig().getOptions()).upload(data.getFilesUpload());
+            createBatchFile(rt);
+        } finally {
+            rt.disconnect();
         }
-        rt.disconnect();
+    }
+
+    public void markDownloaded(final RemoteFile file) {
+        downloaded.add(file);
+    }
+
+    public boolean isDownloaded(final RemoteFile file) {
+        return downloaded.contains(file);
     }
 
     /**
      * Download all the data created by the jobs (not the app output) but the logs.
+     * The files already fetched in batch are skipped.
      */
     public void download() {
         final RemoteTerminal rt = new RemoteTerminal(data.getConfig());
 
         try {
             rt.connect();
-            for (final RemoteFile file : data.getFilesDownload()) {
-                System.err.println("je dois telecharger " + file.getSource());
-                rt.download(file.getSource(), file.getDest());
+            try {
+                final List<RemoteFile> files = data.getFilesDownload().stream()
+                    .filter(file -> ! isDownloaded(file))
+                    .toList();
+
+                log.debug("Downloading " + files.size() + " files of " + data.getJobID());
+                new TransferEngine(rt, data.getConfig().getOptions()).download(files);
+                files.forEach(this::markDownloaded);
+            } finally {
+                rt.disconnect();
             }
-            rt.disconnect();
-            System.err.println("j'ai telecharger les outputs");
 
         } catch (GaswException e) {
             log.error("Failed to download the files !", e);
@@ -79,7 +169,7 @@ public class SlurmJob {
         final boolean isPBS = data.getConfig().getOptions().isUsePBS();
         final RemoteCommandAlternative<Qsub, Sbatch> alternative = new RemoteCommandAlternative<>(isPBS, 
             Qsub.class, Sbatch.class,
-            data.getWorkingDir() + data.getJobID() + ".batch");
+            data.getBatchPath());
         final RemoteCommand command = alternative.getCommand();
 
         try {
@@ -88,26 +178,15 @@ public class SlurmJob {
             if (command.failed()) {
                 throw new GaswException("Command failed !");
             }
-            data.setSlurmJobID(command.result());
-            System.err.println("VOICI LE BTACH JOB " + command.result() + " | " + command.getOutput().getStdout().getContent());
-            
+            setSchedulerJobID(command.result());
+            log.debug("Job " + data.getJobID() + " submitted as " + data.getSlurmJobID());
         } catch (GaswException e) {
             log.error("Failed to submit the job " + getData().getJobID());
             throw e;
         }
     }
 
-    public void start() throws GaswException {
-        System.err.println("je prepare");
-        prepare();
-        System.err.println("je batch");
-        createBatchFile();
-        System.err.println("je submit");
-        submit();
-        setStatus(GaswStatus.SUCCESSFULLY_SUBMITTED);
-    }
-
-    private GaswStatus convertStatus(final String status) {
+    static GaswStatus convertStatus(final String status) {
         if (status == null) {
             return GaswStatus.UNDEFINED;
         }
@@ -120,8 +199,14 @@ public class SlurmJob {
                 return GaswStatus.QUEUED;
             case "CONFIGURING":
                 return GaswStatus.QUEUED;
+            case "REQUEUED":
+                return GaswStatus.QUEUED;
             case "RUNNING":
                 return GaswStatus.RUNNING;
+            case "COMPLETING":
+                return GaswStatus.RUNNING;
+            case "CANCELLED":
+                return GaswStatus.CANCELLED;
             case "FAILED":
                 return GaswStatus.ERROR;
             case "NODE_FAIL":
@@ -130,16 +215,27 @@ public class SlurmJob {
                 return GaswStatus.ERROR;
             case "OUT_OF_MEMORY":
                 return GaswStatus.ERROR;
+            case "TIMEOUT":
+                return GaswStatus.ERROR;
+            case "DEADLINE":
+                return GaswStatus.ERROR;
+            case "PREEMPTED":
+                return GaswStatus.ERROR;
             default:
                 return GaswStatus.UNDEFINED;
         }
     }
 
-    private GaswStatus getStatusRequest() {
+    private RemoteCommand getStatusCommand() {
         final boolean isPBS = data.getConfig().getOptions().isUsePBS();
-        final RemoteCommand command = new RemoteCommandAlternative<Tracejob, Scontrol>(isPBS, 
+
+        return new RemoteCommandAlternative<Tracejob, Scontrol>(isPBS, 
             Tracejob.class, Scontrol.class, 
             data.getSlurmJobID()).getCommand();
+    }
+
+    private GaswStatus getStatusRequest() {
+        final RemoteCommand command = getStatusCommand();
         final String result;
 
         try {
@@ -157,38 +253,48 @@ public class SlurmJob {
         }
     }
 
-    public int getExitCode() {
-        final RemoteCommand command = new Cat(data.getWorkingDir() + data .getExitCodePath());
-        
-        try {
-            command.execute(data.getConfig());
-
-            if (command.failed()) {
-                System.err.println("FAILED TO CAT THE FILE");
-                return 1;
-            }
-            return Integer.parseInt(command.result().trim());
+    /**
+     * Set the state of the job from a bulk status snapshot.
+     * @param state null if the job is missing from the last snapshot, getStatus() then asks the scheduler for it
+     */
+    public synchronized void applyState(final JobState state) {
+        final JobState previous = schedulerState;
 
-        } catch (GaswException e){
-            log.error("Can't retrieve exitcode " + e.getMessage());
-            return 1;
+        schedulerState = state;
+        if (registry != null) {
+            registry.schedulerStateChanged(this, previous, state);
         }
     }
 
+    /**
+     * Never blocks on the scheduler: when the job is missing from the bulk snapshot,
+     * at most one status request is sent per statusRetryWait and UNDEFINED is returned until it answers.
+     */
     public GaswStatus getStatus() {
-        GaswStatus rawStatus;
+        final GaswStatus requested;
 
         if (status == GaswStatus.NOT_SUBMITTED || status == GaswStatus.UNDEFINED || status == GaswStatus.STALLED) {
             return status;
         }
-        for (int i = 0; i < data.getConfig().getOptions().getStatusRetry(); i++) {
-            rawStatus = getStatusRequest();
-
-            if (rawStatus != GaswStatus.UNDEFINED) {
-                return rawStatus;
-            }
-            Utils.sleepNException(data.getConfig().getOptions().getStatusRetryWait());
+        if (data.getSlurmJobID() == null) {
+            return status; /* still being submitted */
+        }
+        if (schedulerState != null) {
+            return convertStatus(schedulerState.getState());
+        }
+        if (System.currentTimeMillis() < nextStatusRequest) {
+            return GaswStatus.UNDEFINED;
+        }
+        requested = getStatusRequest();
+        if (requested != GaswStatus.UNDEFINED) {
+            statusMisses = 0;
+            return requested;
+        }
+        if (++statusMisses >= data.getConfig().getOptions().getStatusRetry()) {
+            setStatus(GaswStatus.STALLED);
+            return GaswStatus.STALLED;
         }
-        return GaswStatus.STALLED;
+        nextStatusRequest = System.currentTimeMillis() + data.getConfig().getOptions().getStatusRetryWait();
+        return GaswStatus.UNDEFINED;
     }
 }
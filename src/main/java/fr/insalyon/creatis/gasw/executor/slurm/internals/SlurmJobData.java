@@ -24,6 +24,10 @@ public class SlurmJobData {
         return getJobID() + ".exit";
     }
 
+    public String getBatchPath() {
+        return getWorkingDir() + getJobID() + ".batch";
+    }
+
     public String getStdoutPath() {
         return getWorkingDir() + "out/" + getJobID() + ".out";
     }
@@ -3,8 +3,8 @@ package fr.insalyon.creatis.gasw.executor.slurm.internals;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -17,7 +17,10 @@ import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Config;
 import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.RemoteCommand;
 import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.items.Mkdir;
 import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.items.Rm;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.metrics.Metrics;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.pipeline.SubmissionPipeline;
 import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteFile;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteTerminal;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.extern.log4j.Log4j;
@@ -28,7 +31,11 @@ public class SlurmManager {
     final private String            workflowId;
     final private Config            config;
     final private String            workingDir;
-    final private List<SlurmJob>    jobs = new ArrayList<>();
+    final private JobRegistry       registry = new JobRegistry();
+    final private Stager            stager;
+    final private SubmissionPipeline pipeline;
+    final private LogSync           logSync;
+    final private CancellationQueue cancellations;
 
     private boolean                 inited = false;
     private Boolean                 end;
@@ -37,12 +44,31 @@ public class SlurmManager {
         this.workflowId = workflowId;
         this.config = config;
         this.workingDir = config.getCredentials().getWorkingDir() + workflowId;
+        this.stager = new Stager(config, workingDir, List.of(new RemoteFile("./workflow.json", workingDir + "/")));
+        this.pipeline = new SubmissionPipeline(config, stager, new ArraySubmitter(config, workingDir, workflowId));
+        this.logSync = new LogSync(config);
+        this.cancellations = new CancellationQueue(config);
+        registerGauges();
+    }
+
+    /**
+     * Queue depths, read from the registry indexes: RUNNING and PENDING are the states reported by the scheduler,
+     * queued counts the jobs in the submission pipeline (locally QUEUED) plus the ones pending at the scheduler.
+     */
+    private void registerGauges() {
+        Metrics.gauge("jobs.active", () -> registry.getActive().size());
+        Metrics.gauge("jobs.notSubmitted", () -> registry.getByStatus(GaswStatus.NOT_SUBMITTED).size());
+        Metrics.gauge("jobs.running", () -> registry.getBySchedulerState("RUNNING").size());
+        Metrics.gauge("jobs.queued", () -> registry.getByStatus(GaswStatus.QUEUED).size()
+            + registry.getBySchedulerState("PENDING").size());
+        Metrics.gauge("logSync.bytes", logSync::getSyncedBytes);
     }
 
     public void init() {
         try {
             checkRemoteDirs();
             checkLocalOutputsDir();
+            logSync.start(this::getRunningJobs);
 
             inited = true;
         } catch (GaswException e) {
@@ -55,18 +81,24 @@ public class SlurmManager {
      */
     public void checkRemoteDirs() throws GaswException {
         final List<RemoteCommand> commands = new ArrayList<>();
+        final RemoteTerminal rt = new RemoteTerminal(config);
 
         commands.add(new Mkdir(getWorkingDir(), ""));
         commands.add(new Mkdir(getWorkingDir() + "/out", "-p"));
         commands.add(new Mkdir(getWorkingDir() + "/err", "-p"));
         commands.add(new Mkdir(getWorkingDir() + "/sh", "-p"));
 
-        for (final RemoteCommand command : commands) {
-            command.execute(config);
+        rt.connect();
+        try {
+            for (final RemoteCommand command : commands) {
+                command.execute(rt);
 
-            if (command.failed()) {
-                throw new GaswException("Failed to create the remotes dirs !");
+                if (command.failed()) {
+                    throw new GaswException("Failed to create the remotes dirs !");
+                }
             }
+        } finally {
+            rt.disconnect();
         }
     }
 
@@ -83,12 +115,16 @@ public class SlurmManager {
     }
 
     /**
-     * Clean files created inside the workflow folder
+     * Cancel the jobs still active (in one command) then clean files created inside the workflow folder
      */
     public void destroy() {
         final RemoteCommand remoteCommand = new Rm(config.getCredentials().getWorkingDir() + workflowId, "-rf");
 
         end = true;
+        pipeline.shutdown();
+        logSync.stop();
+        cancellations.cancelNow(registry.getActive());
+        cancellations.shutdown();
         try {
             if (remoteCommand.execute(config).failed()) {
                 throw new GaswException("");
@@ -104,9 +140,7 @@ public class SlurmManager {
             end = false;
             new Thread(this.new SlurmRunner()).start();
         }
-        synchronized (this) {
-            jobs.add(exec);
-        }
+        registry.add(exec);
     }
 
     public void submitter(final String jobID, final String command) {
@@ -121,12 +155,11 @@ public class SlurmManager {
         filesUpload.add(new RemoteFile("./inv/" + jobID + "-invocation.json", wDirectoryJob));
         filesUpload.add(new RemoteFile("./config/" + jobID + "-configuration.sh", wDirectoryJob));
         filesUpload.add(new RemoteFile("./sh/" + jobID + ".sh", wDirectoryJob + "/sh"));
-        filesUpload.add(new RemoteFile("./workflow.json", wDirectoryJob));
 
         filesDownload.add(new RemoteFile(jobData.getStderrPath(), "./err/" + jobID + ".sh.err"));
         filesDownload.add(new RemoteFile(jobData.getStdoutPath(), "./out/" + jobID + ".sh.out"));
         filesDownload.add(new RemoteFile(wDirectoryJob + jobID + ".sh.provenance.json", "./" + jobID + ".sh.provenance.json"));
-        filesDownload.add(new RemoteFile(wDirectoryJob + jobID + ".batch", "./" + jobID + ".batch"));
+        filesDownload.add(new RemoteFile(jobData.getBatchPath(), "./" + jobID + ".batch"));
 
         jobData.setFilesDownload(filesDownload);
         jobData.setFilesUpload(filesUpload);
@@ -135,16 +168,25 @@ public class SlurmManager {
     }
 
     public SlurmJob getJob(final String jobID) {
-        return jobs.stream()
-                .filter(job -> job.getData().getJobID().equals(jobID))
-                .findFirst()
-                .orElse(null);
+        return registry.get(jobID);
+    }
+
+    public SlurmJob getJobBySchedulerID(final String schedulerJobID) {
+        return registry.getBySchedulerID(schedulerJobID);
+    }
+
+    /**
+     * @return live view of the jobs not terminated yet
+     */
+    public Collection<SlurmJob> getUnfinishedJobs() {
+        return registry.getActive();
     }
 
-    public List<SlurmJob> getUnfinishedJobs() {
-        return jobs.stream()
-               .filter(job -> !job.isTerminated())
-               .collect(Collectors.toCollection(ArrayList::new));
+    /**
+     * @return jobs reported RUNNING by the scheduler
+     */
+    public Collection<SlurmJob> getRunningJobs() {
+        return registry.getBySchedulerState("RUNNING");
     }
 
     @NoArgsConstructor
@@ -176,17 +218,41 @@ public class SlurmManager {
                 sleep();
             }
             while (end == false) {
-                synchronized (this) {
-                    for (final SlurmJob exec : getUnfinishedJobs()) {
-                        if (exec.getStatus() == GaswStatus.NOT_SUBMITTED) {
-                            exec.setStatus(GaswStatus.QUEUED);
-                            exec.start();
-                            System.err.println("je fais le start");
-                        }
-                    }
-                }
+                submitWave();
                 Thread.sleep(GaswConfiguration.getInstance().getDefaultSleeptime());
             }
         }
+
+        /**
+         * When arrays are used, jobs are coalesced until the oldest one waited arrayWindow
+         * or enough jobs are pending to fill an array.
+         */
+        private boolean isCoalescing(final List<SlurmJob> pending) {
+            final long oldest = pending.stream().mapToLong(SlurmJob::getCreatedAt).min().orElse(0);
+
+            return pipeline.useArrays()
+                && pending.size() < config.getOptions().getArrayMaxSize()
+                && System.currentTimeMillis() - oldest < config.getOptions().getArrayWindow();
+        }
+
+        /**
+         * Hand the pending jobs to the pipeline, the work itself is done by its stages.
+         */
+        private void submitWave() {
+            final List<SlurmJob> pending = new ArrayList<>(registry.getByStatus(GaswStatus.NOT_SUBMITTED));
+            final List<SlurmJob> wave;
+
+            if (pending.isEmpty() || isCoalescing(pending)) {
+                return;
+            }
+            /* a job cancelled since it was listed is left out */
+            wave = pending.stream()
+                .filter(exec -> exec.compareAndSetStatus(GaswStatus.NOT_SUBMITTED, GaswStatus.QUEUED))
+                .toList();
+            if ( ! wave.isEmpty()) {
+                pipeline.push(wave);
+            }
+            pipeline.getStages().forEach(stage -> log.debug(stage));
+        }
     }
 }
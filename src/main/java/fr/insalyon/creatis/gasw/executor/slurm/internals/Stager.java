@@ -0,0 +1,214 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import fr.insalyon.creatis.gasw.GaswException;
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Config;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.metrics.Metrics;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteFile;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteOutput;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteTerminal;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.TarWriter;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Upload the inputs of a submission wave in as few round trips as possible:
+ * - the workflow level files once for the whole manager
+ * - the per job files (and batch files) of the wave as one tar stream, unpacked remotely by one command
+ * - contents already known by the UploadCache are not sent but hard linked from the cache
+ * Jobs that can't be bundled are left unstaged, SlurmJob.prepare() then uploads them one by one.
+ */
+@Log4j
+public class Stager {
+
+    final private static String     WORKFLOW_OWNER = "workflow";
+
+    final private Config            config;
+    final private String            workingDir;
+    final private List<RemoteFile>  workflowFiles;
+    @Getter
+    final private UploadCache       cache;
+
+    @Getter
+    private volatile boolean        workflowStaged = false;
+
+    public Stager(final Config config, final String workingDir, final List<RemoteFile> workflowFiles) {
+        this.config = config;
+        this.workingDir = workingDir;
+        this.workflowFiles = workflowFiles;
+        this.cache = new UploadCache(config.getCredentials().getWorkingDir() + ".cache", config.getOptions());
+        Metrics.gauge("uploadCache.hits", cache::getHits);
+        Metrics.gauge("uploadCache.misses", cache::getMisses);
+        Metrics.gauge("uploadCache.savedBytes", cache::getSavedBytes);
+    }
+
+    public void stage(final List<SlurmJob> jobs) {
+        final int waveSize = Math.max(1, config.getOptions().getStagingWaveSize());
+        final RemoteTerminal rt = new RemoteTerminal(config);
+
+        try {
+            rt.connect();
+            try {
+                cache.load(rt);
+                for (int i = 0; i < jobs.size(); i += waveSize) {
+                    stageChunk(rt, jobs.subList(i, Math.min(i + waveSize, jobs.size())));
+                }
+            } finally {
+                rt.disconnect();
+            }
+        } catch (GaswException e) {
+            log.error("Failed to stage the jobs inputs, falling back to per job upload", e);
+        }
+    }
+
+    private void stageChunk(final RemoteTerminal rt, final List<SlurmJob> chunk) {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final List<SlurmJob> bundled = new ArrayList<>();
+        final String script = ".stage-" + System.nanoTime() + ".sh";
+        final boolean withWorkflow = ! workflowStaged;
+        final Set<String> missed = new HashSet<>();
+        final Bundle bundle;
+        final RemoteOutput output;
+
+        try (TarWriter tar = new TarWriter(buffer)) {
+            bundle = new Bundle(tar);
+            if (withWorkflow) {
+                for (final RemoteFile file : workflowFiles) {
+                    bundle.add(WORKFLOW_OWNER, entryName(file), Paths.get(file.getSource()));
+                }
+            }
+            for (final SlurmJob job : chunk) {
+                if (addJob(bundle, job)) {
+                    bundled.add(job);
+                }
+            }
+            tar.addEntry(script, bundle.getScript().toString().getBytes(StandardCharsets.UTF_8));
+
+        } catch (IOException | IllegalArgumentException e) {
+            log.error("Failed to build the staging archive", e);
+            return;
+        }
+
+        output = rt.executeCommand("tar -xf - -C " + workingDir + " && sh " + workingDir + "/" + script
+            + "; status=$?; rm -f " + workingDir + "/" + script + "; exit $status", buffer.toByteArray());
+        if (output == null || output.getExitCode() != 0) {
+            log.error("Failed to unpack the staging archive" + (output == null ? "" : " : " + output.getStderr().getContent()));
+            return;
+        }
+
+        bundle.getSent().forEach(cache::confirm);
+        for (final String line : output.getStdout().getLines()) {
+            final String[] miss = line.trim().split(" ");
+
+            if (miss.length == 3 && miss[0].equals("miss")) {
+                missed.add(miss[1]);
+                cache.forget(miss[2]);
+            }
+        }
+        if (withWorkflow && ! missed.contains(WORKFLOW_OWNER)) {
+            workflowStaged = true;
+        }
+        bundled.stream()
+            .filter(job -> ! missed.contains(job.getData().getJobID()))
+            .forEach(job -> job.setStaged(true));
+        log.info("Staged " + bundled.size() + " jobs in one archive (" + buffer.size() + " bytes), upload cache "
+            + cache.getHits() + " hits / " + cache.getMisses() + " misses");
+    }
+
+    /**
+     * @return false if the job inputs can't be read, the job will then be uploaded on its own
+     */
+    private boolean addJob(final Bundle bundle, final SlurmJob job) throws IOException {
+        final SlurmJobData data = job.getData();
+        final Map<String, Path> files = new LinkedHashMap<>();
+        final String batchName;
+        final byte[] batch;
+
+        try {
+            for (final RemoteFile file : data.getFilesUpload()) {
+                final Path source = Paths.get(file.getSource());
+
+                cache.hash(source);
+                files.put(entryName(file), source);
+            }
+            batchName = entryName(data.getBatchPath());
+            batch = new BatchFile(data).build().toString().getBytes(StandardCharsets.UTF_8);
+
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Can't bundle the inputs of " + data.getJobID() + " : " + e.getMessage());
+            return false;
+        }
+
+        for (final Map.Entry<String, Path> file : files.entrySet()) {
+            bundle.add(data.getJobID(), file.getKey(), file.getValue());
+        }
+        /* batch files are unique per job, no need to cache them */
+        bundle.getTar().addEntry(batchName, batch);
+        return true;
+    }
+
+    /**
+     * RemoteFile destinations of uploads are directories.
+     */
+    private String entryName(final RemoteFile file) {
+        return entryName(Paths.get(file.getDest()).resolve(Paths.get(file.getSource()).getFileName()).toString());
+    }
+
+    /**
+     * @return the path relative to the working dir
+     * @throws IllegalArgumentException if the path is outside of the working dir
+     */
+    private String entryName(final String remotePath) {
+        final Path relative = Paths.get(workingDir).normalize().relativize(Paths.get(remotePath).normalize());
+
+        if (relative.startsWith("..")) {
+            throw new IllegalArgumentException(remotePath + " is outside of " + workingDir);
+        }
+        return relative.toString();
+    }
+
+    /**
+     * Tar archive plus the shell script run once it is unpacked:
+     * cached contents are linked from the cache, the sent ones are linked into it.
+     * A cached content that disappeared is reported as "miss owner hash".
+     */
+    @Getter
+    private class Bundle {
+
+        final private TarWriter     tar;
+        final private StringBuilder script = new StringBuilder();
+        final private Set<String>   sent = new HashSet<>();
+
+        Bundle(final TarWriter tar) {
+            this.tar = tar;
+        }
+
+        void add(final String owner, final String name, final Path source) throws IOException {
+            final String hash = cache.hash(source);
+            final String remote = workingDir + "/" + name;
+            final String entry = cache.getEntryPath(hash);
+
+            if (cache.lookup(hash, Files.size(source), sent)) {
+                /* touch: the mtime of an entry is its last use, see UploadCache.load() */
+                script.append("if [ -f " + entry + " ]; then touch -c " + entry + "; ln -f " + entry + " " + remote + " 2>/dev/null || cp -f " + entry + " " + remote
+                    + "; else echo \"miss " + owner + " " + hash + "\"; fi\n");
+            } else {
+                tar.addEntry(name, Files.readAllBytes(source));
+                script.append("ln -f " + remote + " " + entry + " 2>/dev/null || cp -f " + remote + " " + entry + "\n");
+                sent.add(hash);
+            }
+        }
+    }
+}
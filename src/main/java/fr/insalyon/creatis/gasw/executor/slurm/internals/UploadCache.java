@@ -0,0 +1,162 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Options;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteOutput;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteTerminal;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Content addressed store of the uploaded files on the cluster.
+ * Every uploaded content is hard linked as cacheDir/sha256, so an identical content
+ * (even from a previous run) is linked in place instead of being transferred again.
+ * - remote index: hashes present in cacheDir (listed once, then kept up to date)
+ * - local index: hash of the local files, recomputed only if their size or mtime changed
+ * The cache lives in the .cache dir next to the workflow dirs (credentials workingDir) and is shared by all the runs.
+ * It is pruned when loaded: entries unused for uploadCacheMaxAge days are removed, then the least recently used
+ * ones until it fits in uploadCacheMaxSize. The mtime of an entry is refreshed on each hit.
+ */
+@Log4j
+public class UploadCache {
+
+    final private String                    cacheDir;
+    final private Options                   options;
+    final private Set<String>               remoteIndex = ConcurrentHashMap.newKeySet();
+    final private Map<Path, LocalEntry>     localIndex = new ConcurrentHashMap<>();
+    final private AtomicLong                hits = new AtomicLong();
+    final private AtomicLong                misses = new AtomicLong();
+    final private AtomicLong                savedBytes = new AtomicLong();
+
+    private boolean                         loaded = false;
+
+    public UploadCache(final String cacheDir, final Options options) {
+        this.cacheDir = cacheDir;
+        this.options = options;
+    }
+
+    /**
+     * Create the cache dir, prune it and read the remote index, only the first call does something.
+     */
+    public synchronized void load(final RemoteTerminal rt) {
+        final RemoteOutput output;
+
+        if (loaded) {
+            return;
+        }
+        output = rt.executeCommand("mkdir -p " + cacheDir + " && cd " + cacheDir + " && " + pruneScript() + "ls -1");
+        if (output == null || output.getExitCode() != 0) {
+            log.warn("Failed to read the upload cache index, every file will be uploaded");
+            return;
+        }
+        for (final String line : output.getStdout().getLines()) {
+            if (line.trim().matches("[0-9a-f]{64}")) {
+                remoteIndex.add(line.trim());
+            }
+        }
+        loaded = true;
+        log.info("Upload cache contains " + remoteIndex.size() + " entries");
+    }
+
+    /**
+     * Sizes are counted in KiB by du, an entry still linked by a job dir only frees its space once that dir is removed.
+     */
+    private String pruneScript() {
+        final StringBuilder script = new StringBuilder();
+        final long maxSize = options.getUploadCacheMaxSize() / 1024;
+
+        if (options.getUploadCacheMaxAge() > 0) {
+            script.append("find . -maxdepth 1 -type f -mtime +" + options.getUploadCacheMaxAge() + " -exec rm -f {} + ; ");
+        }
+        if (maxSize > 0) {
+            script.append("total=$(du -sk . | cut -f1); ls -1tr | while [ \"$total\" -gt " + maxSize + " ] && read f; do "
+                + "s=$(du -k \"$f\" | cut -f1); rm -f \"$f\"; total=$((total - s)); done; ");
+        }
+        return script.toString();
+    }
+
+    public String hash(final Path file) throws IOException {
+        final long size = Files.size(file);
+        final long mtime = Files.getLastModifiedTime(file).toMillis();
+        final LocalEntry known = localIndex.get(file);
+
+        if (known != null && known.size == size && known.mtime == mtime) {
+            return known.hash;
+        }
+        final String hash = hash(Files.readAllBytes(file));
+
+        localIndex.put(file, new LocalEntry(size, mtime, hash));
+        return hash;
+    }
+
+    public static String hash(final byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Check the remote index and update the counters.
+     * @param size of the content, counted as saved on a hit
+     * @param pending hashes already sent in the same transfer, they are hits too
+     */
+    public boolean lookup(final String hash, final long size, final Set<String> pending) {
+        if (remoteIndex.contains(hash) || pending.contains(hash)) {
+            hits.incrementAndGet();
+            savedBytes.addAndGet(size);
+            return true;
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * The content is now stored remotely.
+     */
+    public void confirm(final String hash) {
+        remoteIndex.add(hash);
+    }
+
+    /**
+     * The content was listed but is missing remotely (cache cleaned by hand...).
+     */
+    public void forget(final String hash) {
+        remoteIndex.remove(hash);
+    }
+
+    public String getEntryPath(final String hash) {
+        return cacheDir + "/" + hash;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getSavedBytes() {
+        return savedBytes.get();
+    }
+
+    @RequiredArgsConstructor
+    private static class LocalEntry {
+
+        final private long      size;
+        final private long      mtime;
+        final private String    hash;
+    }
+}
@@ -1,7 +1,11 @@
 package fr.insalyon.creatis.gasw.executor.slurm.internals.commands;
 
+import java.util.concurrent.CompletableFuture;
+
 import fr.insalyon.creatis.gasw.GaswException;
 import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Config;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.metrics.Metrics;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.LineHandler;
 import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteOutput;
 import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteTerminal;
 import lombok.Getter;
@@ -16,8 +20,57 @@ public abstract class RemoteCommand {
     private RemoteOutput    output;
 
     public RemoteCommand execute(final Config config) throws GaswException {
+        final long start = System.nanoTime();
+
         output = RemoteTerminal.oneCommand(config, command);
-        return this;
+        return measured(start);
+    }
+
+    /**
+     * Execute the command on an already connected terminal (no extra session borrowed).
+     */
+    public RemoteCommand execute(final RemoteTerminal terminal) {
+        final long start = System.nanoTime();
+
+        output = terminal.executeCommand(command);
+        return measured(start);
+    }
+
+    /**
+     * Asynchronous version of execute(terminal), the output is set once the channel is closed.
+     */
+    public CompletableFuture<RemoteCommand> executeAsync(final RemoteTerminal terminal) {
+        final long start = System.nanoTime();
+
+        return terminal.executeCommandAsync(command)
+            .handle((result, ex) -> {
+                output = result;
+                return measured(start);
+            });
+    }
+
+    /**
+     * Streaming version of execute(terminal): the stdout is handed line by line to the handler
+     * and the output keeps only the stderr and the exit code.
+     */
+    public RemoteCommand executeLines(final RemoteTerminal terminal, final LineHandler handler) {
+        final long start = System.nanoTime();
+
+        output = terminal.executeLines(command, handler);
+        return measured(start);
+    }
+
+    /**
+     * Streaming version of executeAsync(terminal), the handler is called from the channel thread.
+     */
+    public CompletableFuture<RemoteCommand> executeLinesAsync(final RemoteTerminal terminal, final LineHandler handler) {
+        final long start = System.nanoTime();
+
+        return terminal.executeLinesAsync(command, handler)
+            .handle((result, ex) -> {
+                output = result;
+                return measured(start);
+            });
     }
 
     public boolean failed() {
@@ -29,4 +82,17 @@ public abstract class RemoteCommand {
     }
 
     public abstract String result();
+
+    /**
+     * Record the latency (command.Name) and the failures (command.Name.failures) of the command type.
+     */
+    private RemoteCommand measured(final long start) {
+        final String name = "command." + getClass().getSimpleName();
+
+        Metrics.timer(name).recordSince(start);
+        if (failed()) {
+            Metrics.meter(name + ".failures").mark();
+        }
+        return this;
+    }
 }
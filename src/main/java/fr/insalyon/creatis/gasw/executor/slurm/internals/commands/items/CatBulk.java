@@ -0,0 +1,21 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.commands.items;
+
+import java.util.Collection;
+
+import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.RemoteCommand;
+
+/**
+ * First line of many small files in one remote command.
+ * Output format is path|content, with an empty content for a missing or unreadable file.
+ */
+public class CatBulk extends RemoteCommand {
+
+    public CatBulk(final Collection<String> paths) {
+        super("for f in " + String.join(" ", paths) + "; do "
+            + "if [ -r \"$f\" ]; then echo \"$f|$(head -n 1 \"$f\")\"; else echo \"$f|\"; fi; done");
+    }
+
+    public String result() {
+        return getOutput().getStdout().getContent();
+    }
+}
@@ -0,0 +1,17 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.commands.items;
+
+import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.RemoteCommand;
+
+public class Qdel extends RemoteCommand {
+
+    /**
+     * @param jobIDs space separated list of PBS job IDs
+     */
+    public Qdel(final String jobIDs) {
+        super("qdel " + jobIDs);
+    }
+
+    public String result() {
+        return "";
+    }
+}
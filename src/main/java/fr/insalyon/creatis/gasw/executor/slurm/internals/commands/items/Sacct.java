@@ -0,0 +1,17 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.commands.items;
+
+import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.RemoteCommand;
+
+public class Sacct extends RemoteCommand {
+
+    /**
+     * @param jobIDs comma separated list of slurm job IDs
+     */
+    public Sacct(final String jobIDs) {
+        super("sacct --parsable2 --noheader -X --format=JobID,State,ExitCode,Reason -j " + jobIDs);
+    }
+
+    public String result() {
+        return getOutput().getStdout().getContent();
+    }
+}
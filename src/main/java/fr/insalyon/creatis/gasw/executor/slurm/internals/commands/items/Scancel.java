@@ -0,0 +1,17 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.commands.items;
+
+import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.RemoteCommand;
+
+public class Scancel extends RemoteCommand {
+
+    /**
+     * @param jobIDs space separated list of slurm job IDs
+     */
+    public Scancel(final String jobIDs) {
+        super("scancel " + jobIDs);
+    }
+
+    public String result() {
+        return "";
+    }
+}
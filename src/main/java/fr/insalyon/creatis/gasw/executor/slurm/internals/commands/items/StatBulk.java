@@ -0,0 +1,23 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.commands.items;
+
+import java.util.Collection;
+
+import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.RemoteCommand;
+
+/**
+ * Size (and optionally sha256) of many files in one remote command.
+ * Output format is path|size[|sha256], with an empty size for a missing or unreadable file.
+ */
+public class StatBulk extends RemoteCommand {
+
+    public StatBulk(final Collection<String> paths, final boolean checksum) {
+        super("for f in " + String.join(" ", paths) + "; do "
+            + "if [ -r \"$f\" ]; then echo \"$f|$(($(wc -c < \"$f\")))"
+            + (checksum ? "|$(sha256sum < \"$f\" | cut -d' ' -f1)" : "") + "\"; "
+            + "else echo \"$f|\"; fi; done");
+    }
+
+    public String result() {
+        return getOutput().getStdout().getContent();
+    }
+}
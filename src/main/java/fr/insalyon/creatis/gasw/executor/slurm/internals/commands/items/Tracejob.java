@@ -11,7 +11,7 @@ public class Tracejob extends RemoteCommand {
 
     public String result() {
         final RemoteStream out = getOutput().getStdout();
-        final String[] line = out.getRow(out.getLines().length - 1);
+        final String[] line = out.getRow(out.getLineCount() - 1);
 
         return line[line.length - 1];
     } 
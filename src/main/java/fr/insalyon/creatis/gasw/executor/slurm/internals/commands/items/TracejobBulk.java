@@ -0,0 +1,22 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.commands.items;
+
+import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.RemoteCommand;
+
+/**
+ * PBS has no parsable accounting command, tracejob is called for every job but in one remote command.
+ * Output format is JobID|State.
+ */
+public class TracejobBulk extends RemoteCommand {
+
+    /**
+     * @param jobIDs comma separated list of PBS job IDs
+     */
+    public TracejobBulk(final String jobIDs) {
+        super("for id in " + jobIDs.replace(",", " ") + "; do "
+            + "echo \"$id|$(2>/dev/null tracejob $id | grep state | tail -n 1 | awk '{print $NF}')\"; done");
+    }
+
+    public String result() {
+        return getOutput().getStdout().getContent();
+    }
+}
@@ -0,0 +1,16 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.metrics;
+
+import java.util.function.LongSupplier;
+
+import lombok.RequiredArgsConstructor;
+
+@RequiredArgsConstructor
+public class Gauge implements GaugeMXBean {
+
+    final private LongSupplier  value;
+
+    @Override
+    public long getValue() {
+        return value.getAsLong();
+    }
+}
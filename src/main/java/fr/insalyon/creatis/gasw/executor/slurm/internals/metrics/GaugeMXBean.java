@@ -0,0 +1,9 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.metrics;
+
+/**
+ * Value read when asked (queue depth, pool size...).
+ */
+public interface GaugeMXBean {
+
+    long getValue();
+}
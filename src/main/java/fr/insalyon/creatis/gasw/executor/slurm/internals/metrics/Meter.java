@@ -0,0 +1,59 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Event counter with its rates. The last minute is kept as 60 one second slots,
+ * a slot is recycled the first time it is marked in a new second.
+ */
+public class Meter implements MeterMXBean {
+
+    final private static int    SLOTS = 60;
+
+    final private long              createdAt = System.currentTimeMillis();
+    final private AtomicLong        count = new AtomicLong();
+    final private AtomicLongArray   slots = new AtomicLongArray(SLOTS);
+    final private AtomicLongArray   seconds = new AtomicLongArray(SLOTS);
+
+    public void mark() {
+        mark(1);
+    }
+
+    public void mark(final long events) {
+        final long second = System.currentTimeMillis() / 1000;
+        final int slot = (int) (second % SLOTS);
+        final long previous = seconds.get(slot);
+
+        if (previous != second && seconds.compareAndSet(slot, previous, second)) {
+            slots.set(slot, 0);
+        }
+        slots.addAndGet(slot, events);
+        count.addAndGet(events);
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public double getMeanRate() {
+        final long elapsed = System.currentTimeMillis() - createdAt;
+
+        return elapsed <= 0 ? 0 : count.get() * 1000.0 / elapsed;
+    }
+
+    @Override
+    public double getOneMinuteRate() {
+        final long second = System.currentTimeMillis() / 1000;
+        long events = 0;
+
+        for (int i = 0; i < SLOTS; i++) {
+            if (second - seconds.get(i) < SLOTS) {
+                events += slots.get(i);
+            }
+        }
+        return events / (double) SLOTS;
+    }
+}
@@ -0,0 +1,13 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.metrics;
+
+/**
+ * Count of events (or bytes) with their rate per second.
+ */
+public interface MeterMXBean {
+
+    long getCount();
+
+    double getMeanRate();
+
+    double getOneMinuteRate();
+}
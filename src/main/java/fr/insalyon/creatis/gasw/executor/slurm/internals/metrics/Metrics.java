@@ -0,0 +1,86 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Plugin wide metrics, each one registered as an MXBean of the platform MBean server
+ * under fr.insalyon.creatis.gasw.slurm:type=Timer|Meter|Gauge,name=... (see jconsole, VisualVM or a JMX exporter).
+ * Names are dotted: ssh.connect, command.Sbatch, transfer.upload.SCP, monitor.cycle, jobs.queued...
+ * Unregistered by SlurmExecutor.terminate().
+ */
+@Log4j @NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class Metrics {
+
+    final public static String DOMAIN = "fr.insalyon.creatis.gasw.slurm";
+
+    final private static Map<String, Object> METRICS = new ConcurrentHashMap<>();
+
+    public static Timer timer(final String name) {
+        return (Timer) METRICS.computeIfAbsent("Timer:" + name, key -> register("Timer", name, new Timer()));
+    }
+
+    public static Meter meter(final String name) {
+        return (Meter) METRICS.computeIfAbsent("Meter:" + name, key -> register("Meter", name, new Meter()));
+    }
+
+    /**
+     * Replace the gauge of the same name if any (a new manager for instance).
+     */
+    public static void gauge(final String name, final LongSupplier value) {
+        unregister("Gauge", name);
+        METRICS.put("Gauge:" + name, register("Gauge", name, new Gauge(value)));
+    }
+
+    public static void shutdown() {
+        METRICS.keySet().forEach(key -> unregister(key.substring(0, key.indexOf(':')), key.substring(key.indexOf(':') + 1)));
+        METRICS.clear();
+    }
+
+    /**
+     * A metric failing to be exposed is still recorded, it is only logged.
+     */
+    private static <T> T register(final String type, final String name, final T metric) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            final ObjectName objectName = objectName(type, name);
+
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(metric, objectName);
+        } catch (JMException e) {
+            log.warn("Failed to expose the metric " + name + " over JMX", e);
+        }
+        return metric;
+    }
+
+    private static void unregister(final String type, final String name) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            final ObjectName objectName = objectName(type, name);
+
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            log.trace(e);
+        }
+    }
+
+    private static ObjectName objectName(final String type, final String name) throws JMException {
+        return new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+    }
+}
@@ -0,0 +1,116 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram.
+ * Durations are kept in microseconds in log-linear buckets: 8 buckets per power of two,
+ * so recording is a few atomic increments and the memory is fixed whatever the count.
+ */
+public class Timer implements TimerMXBean {
+
+    final private static int    SUB_BUCKETS = 8;
+    final private static int    BUCKETS = 62 * SUB_BUCKETS;
+
+    final private AtomicLongArray   buckets = new AtomicLongArray(BUCKETS);
+    final private AtomicLong        count = new AtomicLong();
+    final private AtomicLong        sum = new AtomicLong();
+    final private AtomicLong        max = new AtomicLong();
+
+    public void record(final long nanos) {
+        final long micros = Math.max(0, nanos / 1000);
+
+        buckets.incrementAndGet(index(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+        max.accumulateAndGet(micros, Math::max);
+    }
+
+    /**
+     * @param startNanos System.nanoTime() at the beginning of the measured operation
+     */
+    public void recordSince(final long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public double getMean() {
+        final long n = count.get();
+
+        return n == 0 ? 0 : sum.get() / (double) n / 1000;
+    }
+
+    @Override
+    public double getMax() {
+        return max.get() / 1000.0;
+    }
+
+    @Override
+    public double get50thPercentile() {
+        return percentile(0.50);
+    }
+
+    @Override
+    public double get95thPercentile() {
+        return percentile(0.95);
+    }
+
+    @Override
+    public double get99thPercentile() {
+        return percentile(0.99);
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * @return upper bound of the bucket holding the quantile, in milliseconds
+     */
+    private double percentile(final double quantile) {
+        final long rank = (long) Math.ceil(count.get() * quantile);
+        long seen = 0;
+
+        if (rank == 0) {
+            return 0;
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get()) / 1000.0;
+            }
+        }
+        return getMax();
+    }
+
+    private int index(final long value) {
+        final int exponent;
+
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        exponent = 63 - Long.numberOfLeadingZeros(value);
+        return Math.min(BUCKETS - 1, (exponent - 2) * SUB_BUCKETS + (int) ((value >> (exponent - 3)) & (SUB_BUCKETS - 1)));
+    }
+
+    private long upperBound(final int index) {
+        final int exponent = index / SUB_BUCKETS + 2;
+
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        return ((SUB_BUCKETS + index % SUB_BUCKETS + 1L) << (exponent - 3)) - 1;
+    }
+}
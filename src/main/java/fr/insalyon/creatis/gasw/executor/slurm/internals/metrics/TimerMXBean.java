@@ -0,0 +1,24 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.metrics;
+
+/**
+ * Durations in milliseconds, percentiles are precise to about 12%.
+ */
+public interface TimerMXBean {
+
+    long getCount();
+
+    double getMean();
+
+    double getMax();
+
+    double get50thPercentile();
+
+    double get95thPercentile();
+
+    double get99thPercentile();
+
+    /**
+     * Forget the recorded durations, to measure a new period.
+     */
+    void reset();
+}
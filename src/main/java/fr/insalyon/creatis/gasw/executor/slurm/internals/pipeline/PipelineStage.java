@@ -0,0 +1,177 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.pipeline;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * One step of the submission pipeline: a bounded queue served by its own virtual threads.
+ * push() blocks when the queue is full (backpressure on the previous stage).
+ * A failing item is reported to the failure handler, it never stops the stage,
+ * and so is an item pushed after shutdown or never processed when the drain times out.
+ */
+@Log4j
+public class PipelineStage<T> {
+
+    @Getter
+    final private String                name;
+    final private Handler<T>            handler;
+    final private FailureHandler<T>     failureHandler;
+    final private ThreadPoolExecutor    executor;
+
+    final private AtomicLong            submitted = new AtomicLong();
+    final private AtomicLong            completed = new AtomicLong();
+    final private AtomicLong            failed = new AtomicLong();
+    final private AtomicLong            totalLatency = new AtomicLong();
+    final private AtomicLong            maxLatency = new AtomicLong();
+
+    public PipelineStage(final String name, final int concurrency, final int queueSize,
+            final Handler<T> handler, final FailureHandler<T> failureHandler) {
+        this.name = name;
+        this.handler = handler;
+        this.failureHandler = failureHandler;
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+            Thread.ofVirtual().name("slurm-" + name + "-", 0).factory(),
+            (task, pool) -> {
+                try {
+                    while ( ! pool.isShutdown()) {
+                        if (pool.getQueue().offer(task, 100, TimeUnit.MILLISECONDS)) {
+                            return;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new RejectedExecutionException("Stage " + name + " is shut down");
+            });
+    }
+
+    public void push(final T item) {
+        submitted.incrementAndGet();
+        try {
+            executor.execute(new Task(item, System.currentTimeMillis()));
+        } catch (RejectedExecutionException e) {
+            reject(item, e);
+        }
+    }
+
+    private void reject(final T item, final Exception cause) {
+        failed.incrementAndGet();
+        log.error("Stage " + name + " dropped an item : " + cause.getMessage());
+        failureHandler.onFailure(item, cause);
+    }
+
+    private void process(final T item, final long enqueued) {
+        try {
+            handler.handle(item);
+            completed.incrementAndGet();
+
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            log.error("Stage " + name + " failed", e);
+            failureHandler.onFailure(item, e);
+
+        } finally {
+            final long latency = System.currentTimeMillis() - enqueued;
+
+            totalLatency.addAndGet(latency);
+            maxLatency.accumulateAndGet(latency, Math::max);
+        }
+    }
+
+    /**
+     * @return items waiting in the queue plus the ones being processed
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size() + executor.getActiveCount();
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return mean time between push and end of processing, in millis
+     */
+    public long getMeanLatency() {
+        final long done = completed.get() + failed.get();
+
+        return done == 0 ? 0 : totalLatency.get() / done;
+    }
+
+    public long getMaxLatency() {
+        return maxLatency.get();
+    }
+
+    /**
+     * Let the items already pushed be processed for up to timeout millis, then interrupt the remaining ones.
+     * The items still queued at that point are rejected.
+     */
+    public void shutdown(final long timeout) {
+        executor.shutdown();
+        try {
+            if ( ! executor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                log.warn("Stage " + name + " not drained after " + timeout + "ms, interrupting it");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (final Runnable task : executor.shutdownNow()) {
+            if (task instanceof PipelineStage<?>.Task pending) {
+                pending.reject(new RejectedExecutionException("Stage " + name + " is shut down"));
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + "[depth=" + getQueueDepth() + ", done=" + getCompleted() + ", failed=" + getFailed()
+            + ", meanLatency=" + getMeanLatency() + "ms, maxLatency=" + getMaxLatency() + "ms]";
+    }
+
+    private class Task implements Runnable {
+
+        final private T     item;
+        final private long  enqueued;
+
+        Task(final T item, final long enqueued) {
+            this.item = item;
+            this.enqueued = enqueued;
+        }
+
+        @Override
+        public void run() {
+            process(item, enqueued);
+        }
+
+        void reject(final Exception cause) {
+            PipelineStage.this.reject(item, cause);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Handler<T> {
+
+        void handle(T item) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface FailureHandler<T> {
+
+        void onFailure(T item, Exception cause);
+    }
+}
@@ -0,0 +1,18 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.pipeline;
+
+import java.util.List;
+
+import fr.insalyon.creatis.gasw.executor.slurm.internals.SlurmJob;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * A batch file ready to be given to the scheduler: a single job or a job array.
+ */
+@Getter @RequiredArgsConstructor
+public class Submission {
+
+    final private List<SlurmJob>    jobs;
+    final private String            batchPath;
+    final private boolean           array;
+}
@@ -0,0 +1,185 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.insalyon.creatis.gasw.GaswException;
+import fr.insalyon.creatis.gasw.execution.GaswStatus;
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Config;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.ArraySubmitter;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.SlurmJob;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.Stager;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.metrics.Metrics;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteTerminal;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Submission of the jobs in three independent stages, each one on its own executor:
+ * - stage-in: upload of the inputs and batch files (Stager, per job upload as fallback)
+ * - batch: writing of the array batch files (pass-through when arrays are not used)
+ * - sbatch: submission to the scheduler
+ * A job failing in any stage is set to ERROR, the other jobs keep going.
+ * With arrays, a wave enters the pipeline in chunks of arrayMaxSize (archived per stagingWaveSize by the Stager),
+ * so each chunk can become one array.
+ */
+@Log4j
+public class SubmissionPipeline {
+
+    /* per stage, in millis */
+    final private static long                           DRAIN_TIMEOUT = 60000;
+    /* consecutive failures to stage the workflow files before the waiting jobs are set to ERROR */
+    final private static int                            MAX_WORKFLOW_ATTEMPTS = 5;
+
+    final private Config                                config;
+    final private Stager                                stager;
+    final private ArraySubmitter                        arraySubmitter;
+    final private AtomicInteger                         workflowFailures = new AtomicInteger();
+
+    @Getter
+    final private PipelineStage<List<SlurmJob>>         stageIn;
+    @Getter
+    final private PipelineStage<List<SlurmJob>>         batchGeneration;
+    @Getter
+    final private PipelineStage<Submission>             submission;
+
+    public SubmissionPipeline(final Config config, final Stager stager, final ArraySubmitter arraySubmitter) {
+        final int concurrency = Math.max(1, config.getOptions().getPipelineConcurrency());
+        final int queueSize = config.getOptions().getPipelineQueueSize();
+
+        this.config = config;
+        this.stager = stager;
+        this.arraySubmitter = arraySubmitter;
+        this.stageIn = new PipelineStage<>("stage-in", concurrency, queueSize, this::stageIn, this::fail);
+        this.batchGeneration = new PipelineStage<>("batch", concurrency, queueSize, this::generateBatches, this::fail);
+        this.submission = new PipelineStage<>("sbatch", concurrency, queueSize, this::submit,
+            (item, cause) -> fail(item.getJobs(), cause));
+        getStages().forEach(stage -> Metrics.gauge("pipeline." + stage.getName() + ".queued", stage::getQueueDepth));
+    }
+
+    public boolean useArrays() {
+        return config.getOptions().getArrayWindow() > 0 && ! config.getOptions().isUsePBS();
+    }
+
+    /**
+     * @param wave jobs in the QUEUED status, cut in chunks of arrayMaxSize with arrays, of stagingWaveSize otherwise
+     */
+    public void push(final List<SlurmJob> wave) {
+        final int waveSize = Math.max(1, useArrays() ? config.getOptions().getArrayMaxSize() : config.getOptions().getStagingWaveSize());
+
+        for (int i = 0; i < wave.size(); i += waveSize) {
+            stageIn.push(new ArrayList<>(wave.subList(i, Math.min(i + waveSize, wave.size()))));
+        }
+    }
+
+    private void stageIn(final List<SlurmJob> jobs) {
+        final List<SlurmJob> ready = new ArrayList<>();
+
+        stager.stage(jobs);
+        if ( ! stager.isWorkflowStaged()) {
+            /* jobs can't run without the workflow files, the runner retries them a few times */
+            if (workflowFailures.incrementAndGet() >= MAX_WORKFLOW_ATTEMPTS) {
+                fail(jobs, new GaswException("Workflow files not staged after " + workflowFailures.get() + " attempts"));
+            } else {
+                jobs.forEach(job -> job.compareAndSetStatus(GaswStatus.QUEUED, GaswStatus.NOT_SUBMITTED));
+            }
+            return;
+        }
+        workflowFailures.set(0);
+        for (final SlurmJob job : jobs) {
+            if ( ! job.isStaged()) {
+                try {
+                    job.prepare();
+                    job.setStaged(true);
+                } catch (GaswException e) {
+                    fail(job, e);
+                    continue;
+                }
+            }
+            ready.add(job);
+        }
+        if ( ! ready.isEmpty()) {
+            batchGeneration.push(ready);
+        }
+    }
+
+    private void generateBatches(final List<SlurmJob> jobs) throws GaswException {
+        final List<Submission> submissions = new ArrayList<>();
+
+        if (useArrays()) {
+            final int maxSize = Math.max(1, config.getOptions().getArrayMaxSize());
+            final RemoteTerminal rt = new RemoteTerminal(config);
+
+            rt.connect();
+            try {
+                for (int i = 0; i < jobs.size(); i += maxSize) {
+                    final List<SlurmJob> chunk = jobs.subList(i, Math.min(i + maxSize, jobs.size()));
+
+                    try {
+                        submissions.add(new Submission(chunk, arraySubmitter.writeBatch(rt, chunk), true));
+                    } catch (GaswException e) {
+                        log.error("Failed to write the array batch file, jobs will be submitted one by one", e);
+                        chunk.forEach(job -> submissions.add(single(job)));
+                    }
+                }
+            } finally {
+                rt.disconnect();
+            }
+        } else {
+            jobs.forEach(job -> submissions.add(single(job)));
+        }
+        /* pushed once the session is given back, the next stage may need it */
+        submissions.forEach(submission::push);
+    }
+
+    private Submission single(final SlurmJob job) {
+        return new Submission(List.of(job), job.getData().getBatchPath(), false);
+    }
+
+    private void submit(final Submission item) throws GaswException {
+        if (item.isArray()) {
+            final RemoteTerminal rt = new RemoteTerminal(config);
+            final boolean submitted;
+
+            rt.connect();
+            try {
+                submitted = arraySubmitter.submit(rt, item.getBatchPath(), item.getJobs());
+            } finally {
+                rt.disconnect();
+            }
+            if (submitted) {
+                return;
+            }
+        }
+        for (final SlurmJob job : item.getJobs()) {
+            try {
+                job.submit();
+                job.setStatus(GaswStatus.SUCCESSFULLY_SUBMITTED);
+            } catch (GaswException e) {
+                fail(job, e);
+            }
+        }
+    }
+
+    private void fail(final List<SlurmJob> jobs, final Exception cause) {
+        jobs.forEach(job -> fail(job, cause));
+    }
+
+    private void fail(final SlurmJob job, final Exception cause) {
+        log.error("Failed to submit the job " + job.getData().getJobID() + " : " + cause.getMessage());
+        job.setStatus(GaswStatus.ERROR);
+    }
+
+    public List<PipelineStage<?>> getStages() {
+        return List.of(stageIn, batchGeneration, submission);
+    }
+
+    /**
+     * Drain the stages in order, so a running sbatch records its scheduler ID
+     * and the jobs can be cancelled afterwards. The jobs not submitted in time are set to ERROR.
+     */
+    public void shutdown() {
+        getStages().forEach(stage -> stage.shutdown(DRAIN_TIMEOUT));
+    }
+}
@@ -0,0 +1,102 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.status;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import fr.insalyon.creatis.gasw.executor.slurm.config.Constants;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteStream;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * State of one job as reported by the scheduler in a bulk status command.
+ * Format of a line: JobID|State|ExitCode|Reason (the last two are optional).
+ */
+@Getter @RequiredArgsConstructor
+public class JobState {
+
+    final private static Pattern PENDING_ARRAY = Pattern.compile("(\\d+)_\\[([^\\]]+)\\]");
+
+    final private String    schedulerJobID;
+    final private String    state;
+    final private Integer   exitCode; /* null when not reported */
+    final private String    reason;
+
+    /**
+     * Pending tasks of a job array are reported on one line as arrayID_[3-10,12%4],
+     * they are expanded to one state per task (arrayID_3, arrayID_4...).
+     * @return an empty list if the line can't be parsed
+     */
+    public static List<JobState> parseAll(final String line) {
+        final JobState state = parse(line);
+        final Matcher matcher;
+        final List<JobState> states = new ArrayList<>();
+
+        if (state == null) {
+            return states;
+        }
+        matcher = PENDING_ARRAY.matcher(state.getSchedulerJobID());
+        if ( ! matcher.matches()) {
+            states.add(state);
+            return states;
+        }
+        for (final String range : matcher.group(2).split("%")[0].split(",")) {
+            final String[] bounds = range.split("-");
+
+            try {
+                final int first = Integer.parseInt(bounds[0]);
+                final int last = Integer.parseInt(bounds[bounds.length - 1]);
+
+                for (int i = first; i <= last; i++) {
+                    states.add(new JobState(matcher.group(1) + "_" + i, state.getState(), state.getExitCode(), state.getReason()));
+                }
+            } catch (NumberFormatException e) {
+                /* not a task range, ignored */
+            }
+        }
+        return states;
+    }
+
+    /**
+     * @return null if the line can't be parsed
+     */
+    public static JobState parse(final String line) {
+        final String[] fields = new RemoteStream(line.trim()).getRow(0, Constants.PARSABLE_SEPARATOR);
+
+        if (fields.length < 2 || fields[0].isEmpty() || fields[1].isBlank()) {
+            return null;
+        }
+        return new JobState(fields[0],
+            new RemoteStream(fields[1].trim()).getRow(0)[0],
+            fields.length > 2 ? parseExitCode(fields[2]) : null,
+            fields.length > 3 ? fields[3] : null);
+    }
+
+    /**
+     * Slurm format is "exitcode:signal", a job killed by a signal (scancel, TIMEOUT, OOM killer...)
+     * reports 0:9 or 0:15 and is given 128 + signal, as a shell would.
+     */
+    static Integer parseExitCode(final String raw) {
+        final String[] parts = raw.trim().split(":");
+
+        try {
+            final int exitCode = Integer.parseInt(parts[0].trim());
+            final int signal = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 0;
+
+            return signal != 0 ? 128 + signal : exitCode;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Only a COMPLETED job reports the exit code of the command itself,
+     * the others were killed or failed around it.
+     * @return null when the exit code must be read from the job exit file
+     */
+    public Integer getTrustedExitCode() {
+        return "COMPLETED".equals(state) ? exitCode : null;
+    }
+}
@@ -0,0 +1,50 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.status;
+
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Options;
+
+/**
+ * Delay before the next status round, adapted to what the last round saw:
+ * - a job changed state or is completing: poll at pollIntervalMin
+ * - every job is pending: back off, the delay is doubled each round up to pollIntervalMax
+ * - otherwise: the default delay
+ * The delay never goes under a few times the time the controller took to answer.
+ */
+public class PollInterval {
+
+    final private static int    LATENCY_FACTOR = 4;
+
+    final private long          min;
+    final private long          max;
+    final private long          base;
+
+    private long                current;
+
+    public PollInterval(final Options options, final long base) {
+        this.min = Math.max(1, options.getPollIntervalMin());
+        this.max = Math.max(min, options.getPollIntervalMax());
+        this.base = clamp(base);
+        this.current = this.base;
+    }
+
+    /**
+     * @param changed a job changed state or is about to complete
+     * @param allPending no job started yet
+     * @param latency time taken by the last status round in millis
+     * @return delay before the next round in millis
+     */
+    public long next(final boolean changed, final boolean allPending, final long latency) {
+        if (changed) {
+            current = min;
+        } else if (allPending) {
+            current = current * 2;
+        } else {
+            current = base;
+        }
+        current = clamp(Math.max(current, latency * LATENCY_FACTOR));
+        return current;
+    }
+
+    private long clamp(final long value) {
+        return Math.min(max, Math.max(min, value));
+    }
+}
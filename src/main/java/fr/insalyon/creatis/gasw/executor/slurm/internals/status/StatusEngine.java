@@ -0,0 +1,93 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.status;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+import fr.insalyon.creatis.gasw.GaswException;
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Config;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.SlurmJob;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.RemoteCommand;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.RemoteCommandAlternative;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.items.Sacct;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.items.TracejobBulk;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteOutput;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteTerminal;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Retrieve the state of many jobs with one scheduler command per chunk of statusBatchSize jobs,
+ * all the chunks being sent in parallel on one session.
+ * The outputs are parsed line by line as they are received, they are never held whole in memory.
+ */
+@Log4j @RequiredArgsConstructor
+public class StatusEngine {
+
+    final private Config    config;
+
+    public StatusSnapshot poll(final Collection<SlurmJob> jobs) {
+        final StatusSnapshot snapshot = new StatusSnapshot();
+        final List<String> ids = jobs.stream()
+            .map(job -> job.getData().getSlurmJobID())
+            .filter(Objects::nonNull)
+            .map(this::getQueryID)
+            .distinct()
+            .toList();
+        final int batchSize = Math.max(1, config.getOptions().getStatusBatchSize());
+        final List<CompletableFuture<RemoteCommand>> requests = new ArrayList<>();
+        final RemoteTerminal rt = new RemoteTerminal(config);
+
+        if (ids.isEmpty()) {
+            return snapshot;
+        }
+        try {
+            rt.connect();
+            try {
+                for (int i = 0; i < ids.size(); i += batchSize) {
+                    final String chunk = String.join(",", ids.subList(i, Math.min(i + batchSize, ids.size())));
+
+                    requests.add(getCommand(chunk).executeLinesAsync(rt, line -> {
+                        JobState.parseAll(line).forEach(snapshot::add);
+                        return true;
+                    }));
+                }
+                requests.forEach(request -> check(request.join()));
+            } finally {
+                rt.disconnect();
+            }
+        } catch (GaswException e) {
+            log.error("Failed to poll the jobs status !", e);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Tasks of a job array (arrayID_index) are asked through their array, so pending
+     * tasks still grouped by the scheduler are reported too.
+     */
+    private String getQueryID(final String schedulerJobID) {
+        final int separator = schedulerJobID.indexOf('_');
+
+        return separator == -1 ? schedulerJobID : schedulerJobID.substring(0, separator);
+    }
+
+    private RemoteCommand getCommand(final String jobIDs) {
+        return new RemoteCommandAlternative<TracejobBulk, Sacct>(config.getOptions().isUsePBS(),
+            TracejobBulk.class, Sacct.class,
+            jobIDs).getCommand();
+    }
+
+    /**
+     * The lines received before a failure are kept in the snapshot, they are valid states.
+     */
+    private void check(final RemoteCommand command) {
+        final RemoteOutput output = command.getOutput();
+
+        if (output == null || output.getExitCode() != 0) {
+            log.warn("Bulk status command failed" + (output == null ? "" : " : " + output.getStderr().getContent()));
+        }
+    }
+}
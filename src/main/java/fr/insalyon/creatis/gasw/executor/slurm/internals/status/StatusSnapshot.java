@@ -0,0 +1,33 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.status;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.Getter;
+
+/**
+ * Scheduler state of a set of jobs taken at one point in time, indexed by scheduler job ID.
+ * Filled concurrently by the channels of the StatusEngine.
+ */
+public class StatusSnapshot {
+
+    final private Map<String, JobState> states = new ConcurrentHashMap<>();
+
+    @Getter
+    final private long                  createdAt = System.currentTimeMillis();
+
+    public void add(final JobState state) {
+        states.put(state.getSchedulerJobID(), state);
+    }
+
+    /**
+     * @return null if the job was not reported
+     */
+    public JobState get(final String schedulerJobID) {
+        return schedulerJobID == null ? null : states.get(schedulerJobID);
+    }
+
+    public int size() {
+        return states.size();
+    }
+}
@@ -0,0 +1,127 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.status;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sshd.client.channel.ChannelExec;
+
+import fr.insalyon.creatis.gasw.GaswException;
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Config;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteTerminal;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Push based status: one long lived channel runs a watcher script on the login node
+ * which diffs the sacct output of the user and prints only the lines that changed.
+ * A "#" heartbeat is printed on each round, so a silent channel is detected as dead.
+ * The first round reports every job, so no transition is lost when the watcher is (re)started.
+ * The watcher keeps one dedicated session for itself, on top of the maxSessions of the pool.
+ */
+@Log4j
+public class StatusWatcher {
+
+    final private static String             HEARTBEAT = "#";
+
+    final private Config                    config;
+    final private String                    scriptPath;
+    final private BlockingQueue<JobState>   events = new LinkedBlockingQueue<>();
+
+    private RemoteTerminal                  terminal;
+    private ChannelExec                     channel;
+    private volatile long                   lastLine;
+
+    public StatusWatcher(final Config config, final String workingDir) {
+        this.config = config;
+        this.scriptPath = workingDir + "/.watcher.sh";
+    }
+
+    public synchronized void start() throws GaswException {
+        final RemoteTerminal rt = new RemoteTerminal(config);
+
+        stop();
+        rt.connectDedicated();
+        try {
+            rt.upload(buildScript().getBytes(StandardCharsets.UTF_8), scriptPath);
+            channel = rt.executeStream("sh " + scriptPath, this::onLine);
+            terminal = rt;
+            lastLine = System.currentTimeMillis();
+            log.info("Status watcher started");
+
+        } finally {
+            if (terminal == null) {
+                rt.disconnect();
+            }
+        }
+    }
+
+    public synchronized void stop() {
+        if (channel != null) {
+            channel.close(true);
+            channel = null;
+        }
+        if (terminal != null) {
+            try {
+                terminal.disconnect();
+            } catch (GaswException e) {
+                log.warn("Failed to release the watcher session", e);
+            }
+            terminal = null;
+        }
+    }
+
+    /**
+     * @return false if the channel is closed or stayed silent for three rounds
+     */
+    public boolean isAlive() {
+        final long silence = System.currentTimeMillis() - lastLine;
+        final ChannelExec current = channel;
+
+        return current != null && current.isOpen()
+            && silence < TimeUnit.SECONDS.toMillis(3L * Math.max(1, config.getOptions().getWatcherInterval()));
+    }
+
+    /**
+     * Wait for the first transition up to timeout, then take all the pending ones.
+     * @return an empty list if nothing changed in the meantime
+     */
+    public List<JobState> take(final long timeout) throws InterruptedException {
+        final List<JobState> result = new ArrayList<>();
+        final JobState first = events.poll(timeout, TimeUnit.MILLISECONDS);
+
+        if (first != null) {
+            result.add(first);
+            events.drainTo(result);
+        }
+        return result;
+    }
+
+    private void onLine(final String line) {
+        lastLine = System.currentTimeMillis();
+        if ( ! line.startsWith(HEARTBEAT)) {
+            events.addAll(JobState.parseAll(line));
+        }
+    }
+
+    /**
+     * The script exits on its own when the channel is gone (the heartbeat write fails).
+     */
+    private String buildScript() {
+        return "prev=$(mktemp) || exit 1\n"
+            + "cur=$(mktemp) || exit 1\n"
+            + "trap 'rm -f $prev $cur' EXIT\n"
+            + "trap 'exit 1' HUP PIPE TERM\n"
+            + "start=$(date +%Y-%m-%dT%H:%M:%S)\n"
+            + "while :; do\n"
+            + "    if sacct --parsable2 --noheader -X --format=JobID,State,ExitCode,Reason -u \"$(id -un)\" -S \"$start\" > $cur 2>/dev/null; then\n"
+            + "        grep -Fxv -f $prev $cur\n"
+            + "        cp $cur $prev\n"
+            + "    fi\n"
+            + "    echo '" + HEARTBEAT + "' || exit 1\n"
+            + "    sleep " + Math.max(1, config.getOptions().getWatcherInterval()) + "\n"
+            + "done\n";
+    }
+}
@@ -0,0 +1,141 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.terminal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sshd.client.channel.ChannelExec;
+import org.apache.sshd.client.session.ClientSession;
+
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Options;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Run many exec channels in parallel on one session.
+ * The number of simultaneously opened channels is capped by the maxChannelsPerSession option,
+ * which must stay below the MaxSessions value of the remote sshd (10 by default on OpenSSH).
+ * Extra commands are queued and started as soon as a channel closes.
+ * A command submitted with a LineHandler streams its stdout to it from the channel thread instead of buffering it.
+ */
+@Log4j
+public class ChannelMultiplexer {
+
+    final private ClientSession             session;
+    final private Options                   options;
+    final private Semaphore                 channels;
+    final private Queue<PendingCommand>     pending = new ConcurrentLinkedQueue<>();
+
+    public ChannelMultiplexer(final ClientSession session, final Options options) {
+        this.session = session;
+        this.options = options;
+        this.channels = new Semaphore(Math.max(1, options.getMaxChannelsPerSession()));
+    }
+
+    public CompletableFuture<RemoteOutput> submit(final String command) {
+        return submit(command, null);
+    }
+
+    /**
+     * @param handler receives the stdout lines, the stdout of the returned output is then empty; may be null
+     */
+    public CompletableFuture<RemoteOutput> submit(final String command, final LineHandler handler) {
+        final PendingCommand cmd = new PendingCommand(command, handler, new CompletableFuture<>());
+
+        pending.add(cmd);
+        drain();
+        return cmd.future;
+    }
+
+    /**
+     * @return number of commands waiting for a free channel
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    private void drain() {
+        while ( ! pending.isEmpty() && channels.tryAcquire()) {
+            final PendingCommand next = pending.poll();
+
+            if (next == null) {
+                channels.release();
+                return;
+            }
+            open(next);
+        }
+    }
+
+    private void done() {
+        channels.release();
+        drain();
+    }
+
+    private void open(final PendingCommand cmd) {
+        final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        final ChannelExec channel;
+        final LineOutputStream lines;
+
+        try {
+            channel = session.createExecChannel(cmd.command);
+        } catch (IOException e) {
+            cmd.future.completeExceptionally(e);
+            done();
+            return;
+        }
+        lines = cmd.handler == null ? null : new LineOutputStream(line -> {
+            if ( ! cmd.handler.accept(line)) {
+                channel.close(true);
+                return false;
+            }
+            return true;
+        }, options.getStreamMaxLineLength());
+        channel.setOut(lines == null ? stdout : lines);
+        channel.setErr(stderr);
+        channel.addCloseFutureListener(closed -> {
+            final Integer exitStatus = channel.getExitStatus();
+
+            if (lines != null) {
+                lines.close();
+            }
+
+            cmd.future.complete(new RemoteOutput(stdout.toString(), stderr.toString(), exitStatus == null ? -1 : exitStatus));
+            done();
+        });
+        cmd.future.orTimeout(options.getCommandExecutionTimeout(), TimeUnit.SECONDS)
+            .whenComplete((output, ex) -> {
+                if (ex != null) {
+                    channel.close(true);
+                }
+            });
+
+        try {
+            channel.open().addListener(opened -> {
+                if ( ! opened.isOpened()) {
+                    final Throwable cause = opened.getException() != null
+                        ? opened.getException() : new IOException("Channel not opened");
+
+                    log.error("Failed to open channel for " + cmd.command, cause);
+                    cmd.future.completeExceptionally(cause);
+                    channel.close(true);
+                }
+            });
+        } catch (IOException e) {
+            cmd.future.completeExceptionally(e);
+            channel.close(true);
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class PendingCommand {
+
+        final private String                            command;
+        final private LineHandler                       handler;
+        final private CompletableFuture<RemoteOutput>   future;
+    }
+}
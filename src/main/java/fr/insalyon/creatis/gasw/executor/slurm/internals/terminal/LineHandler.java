@@ -0,0 +1,13 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.terminal;
+
+/**
+ * Receives the stdout of a streamed command line by line (without the line terminator).
+ */
+@FunctionalInterface
+public interface LineHandler {
+
+    /**
+     * @return false to cancel the command, the remaining output is dropped and the channel closed
+     */
+    boolean accept(String line);
+}
@@ -0,0 +1,82 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.terminal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Output stream of a long running channel, every complete line is handed to the consumer
+ * as soon as it is received (without its line terminator).
+ * A line longer than maxLineLength bytes is handed in several chunks (cut between two UTF-8 characters),
+ * so the buffered bytes stay bounded whatever the output.
+ */
+public class LineOutputStream extends OutputStream {
+
+    final private LineHandler           handler;
+    final private int                   maxLineLength;
+    final private ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+
+    private volatile boolean            cancelled;
+
+    public LineOutputStream(final Consumer<String> consumer) {
+        this(line -> {
+            consumer.accept(line);
+            return true;
+        }, Integer.MAX_VALUE);
+    }
+
+    public LineOutputStream(final LineHandler handler, final int maxLineLength) {
+        this.handler = handler;
+        this.maxLineLength = Math.max(1, maxLineLength);
+    }
+
+    /**
+     * @return true once the handler refused a line, nothing is handed anymore
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public synchronized void write(final int b) {
+        if (cancelled) {
+            return;
+        }
+        if (b == '\n') {
+            flushLine();
+        } else if (b != '\r') {
+            /* never cut inside a multi bytes character (continuation bytes are 10xxxxxx) */
+            if (line.size() >= maxLineLength && (b & 0xC0) != 0x80) {
+                flushLine();
+            }
+            line.write(b);
+        }
+    }
+
+    @Override
+    public synchronized void write(final byte[] b, final int off, final int len) {
+        for (int i = off; i < off + len; i++) {
+            write(b[i]);
+        }
+    }
+
+    /**
+     * A last unterminated line is still delivered.
+     */
+    @Override
+    public synchronized void close() {
+        if (line.size() > 0 && ! cancelled) {
+            flushLine();
+        }
+    }
+
+    private void flushLine() {
+        final String content = line.toString(StandardCharsets.UTF_8);
+
+        line.reset();
+        if ( ! handler.accept(content)) {
+            cancelled = true;
+        }
+    }
+}
@@ -1,28 +1,71 @@
 package fr.insalyon.creatis.gasw.executor.slurm.internals.terminal;
 
-import fr.insalyon.creatis.gasw.executor.slurm.config.Constants;
+import java.util.Arrays;
+
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
-@RequiredArgsConstructor @Getter
+/**
+ * Output of a remote command with some parsing tools.
+ * The line offsets are indexed in one pass on the first access, the fields are then found by scanning
+ * their line only: reading a row or a column never splits the whole content again.
+ * Fields are split on whitespace runs (as split("\\s+") would) or on a delimiter such as '|' for --parsable2,
+ * they can be read as CharSequence views without copying the content.
+ */
+@RequiredArgsConstructor
 public class RemoteStream {
-    
-    final String    content;
+
+    /* split on whitespace runs, see Constants.SPLIT_REGEX */
+    final private static char   WHITESPACE = Character.MIN_VALUE;
+    final private static long   MISSING = -1;
+
+    @Getter
+    final private String    content;
+
+    private volatile Index  index;
+
+    public int getLineCount() {
+        return index().count;
+    }
 
     public String[] getLines() {
-        return content.split("\n");
+        final Index lines = index();
+        final String[] result = new String[lines.count];
+
+        for (int i = 0; i < lines.count; i++) {
+            result[i] = content.substring(lines.starts[i], lines.ends[i]);
+        }
+        return result;
+    }
+
+    public CharSequence getLine(final int index) {
+        final Index lines = index();
+
+        checkLine(index);
+        return new Slice(lines.starts[index], lines.ends[index]);
     }
 
     /**
      * @return the splited row(index)
      */
-    public String[] getRow(final int index){
-        final String[] splited = getLines();
+    public String[] getRow(final int index) {
+        return getRow(index, WHITESPACE);
+    }
 
-        if (index >= splited.length) {
-            throw new IndexOutOfBoundsException();
+    /**
+     * @return the row(index) splited on every delimiter, empty fields included
+     */
+    public String[] getRow(final int index, final char delimiter) {
+        final String[] result;
+
+        checkLine(index);
+        result = new String[fieldCount(index, delimiter)];
+        for (int i = 0; i < result.length; i++) {
+            final long bounds = fieldBounds(index, i, delimiter);
+
+            result[i] = content.substring(start(bounds), end(bounds));
         }
-        return splited[index].split(Constants.SPLIT_REGEX);
+        return result;
     }
 
     /**
@@ -30,15 +73,208 @@ public class RemoteStream {
      * @return the splited column(index)
      */
     public String[] getColumn(final int index) {
-        final String[] first = getRow(0);
-        final String[] result = new String[getLines().length];
+        return getColumn(index, WHITESPACE);
+    }
+
+    public String[] getColumn(final int index, final char delimiter) {
+        final String[] result = new String[getLineCount()];
 
-        if (index > first.length) {
+        for (int i = 0; i < result.length; i++) {
+            result[i] = getField(i, index, delimiter).toString();
+        }
+        return result;
+    }
+
+    public CharSequence getField(final int row, final int column) {
+        return getField(row, column, WHITESPACE);
+    }
+
+    /**
+     * @return view of the field, toString() copies it
+     */
+    public CharSequence getField(final int row, final int column, final char delimiter) {
+        final long bounds;
+
+        checkLine(row);
+        bounds = fieldBounds(row, column, delimiter);
+        if (bounds == MISSING) {
+            throw new IndexOutOfBoundsException("No field " + column + " in line " + row);
+        }
+        return new Slice(start(bounds), end(bounds));
+    }
+
+    public int getFieldCount(final int row, final char delimiter) {
+        checkLine(row);
+        return fieldCount(row, delimiter);
+    }
+
+    private void checkLine(final int index) {
+        if (index < 0 || index >= getLineCount()) {
             throw new IndexOutOfBoundsException();
         }
-        for (int i = 0; i < getLines().length; i++) {
-            result[i] = getRow(i)[index];
+    }
+
+    /**
+     * Same lines as split("\n"): trailing empty lines are dropped.
+     */
+    private Index index() {
+        Index lines = index;
+
+        if (lines == null) {
+            int[] starts = new int[16];
+            int[] ends = new int[16];
+            int count = 0;
+            int start = 0;
+            int end;
+
+            while ((end = content.indexOf('\n', start)) != -1) {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    ends = Arrays.copyOf(ends, count * 2);
+                }
+                starts[count] = start;
+                ends[count++] = end;
+                start = end + 1;
+            }
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count + 1);
+                ends = Arrays.copyOf(ends, count + 1);
+            }
+            starts[count] = start;
+            ends[count++] = content.length();
+            if (count > 1) {
+                while (count > 0 && starts[count - 1] == ends[count - 1]) {
+                    count--;
+                }
+            }
+            lines = new Index(starts, ends, count);
+            index = lines;
+        }
+        return lines;
+    }
+
+    /**
+     * Whitespace runs behave as split("\\s+"): a leading empty field is kept, a trailing one is dropped.
+     */
+    private int fieldCount(final int line, final char delimiter) {
+        final int start = index().starts[line];
+        final int end = index().ends[line];
+        int count = 1;
+        int i = start;
+
+        if (delimiter != WHITESPACE) {
+            for (; i < end; i++) {
+                count += content.charAt(i) == delimiter ? 1 : 0;
+            }
+            return count;
+        }
+        while (i < end) {
+            if (isSpace(content.charAt(i))) {
+                while (i < end && isSpace(content.charAt(i))) {
+                    i++;
+                }
+                /* the field after the last run is empty when the line ends with whitespace */
+                if (i == end) {
+                    return isSpace(content.charAt(start)) && count == 1 ? 0 : count;
+                }
+                count++;
+            } else {
+                i++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return start and end offsets of the field packed in a long, MISSING if there is no such field
+     */
+    private long fieldBounds(final int line, final int column, final char delimiter) {
+        final int end = index().ends[line];
+        int start = index().starts[line];
+        int field = 0;
+
+        if (column < 0 || column >= fieldCount(line, delimiter)) {
+            return MISSING;
+        }
+        for (int i = start; i < end; i++) {
+            final char c = content.charAt(i);
+
+            if (delimiter == WHITESPACE ? isSpace(c) : c == delimiter) {
+                if (field == column) {
+                    return pack(start, i);
+                }
+                field++;
+                if (delimiter == WHITESPACE) {
+                    while (i + 1 < end && isSpace(content.charAt(i + 1))) {
+                        i++;
+                    }
+                }
+                start = i + 1;
+            }
+        }
+        return pack(start, end);
+    }
+
+    /**
+     * Same characters as the regex \s.
+     */
+    private static boolean isSpace(final char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private long pack(final int start, final int end) {
+        return ((long) start << 32) | end;
+    }
+
+    private int start(final long bounds) {
+        return (int) (bounds >>> 32);
+    }
+
+    private int end(final long bounds) {
+        return (int) bounds;
+    }
+
+    @RequiredArgsConstructor
+    private static class Index {
+
+        final private int[]     starts;
+        final private int[]     ends;
+        final private int       count;
+    }
+
+    /**
+     * Window over the content, copied only by toString().
+     */
+    @RequiredArgsConstructor
+    private class Slice implements CharSequence {
+
+        final private int   start;
+        final private int   end;
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(final int index) {
+            if (index < 0 || index >= length()) {
+                throw new IndexOutOfBoundsException();
+            }
+            return content.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(final int from, final int to) {
+            if (from < 0 || to > length() || from > to) {
+                throw new IndexOutOfBoundsException();
+            }
+            return new Slice(start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            return content.substring(start, end);
         }
-        return result;
     }
 }
@@ -2,26 +2,34 @@ package fr.insalyon.creatis.gasw.executor.slurm.internals.terminal;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.GeneralSecurityException;
-import java.security.KeyPair;
-import java.util.Collection;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
-import org.apache.sshd.client.SshClient;
 import org.apache.sshd.client.channel.ChannelExec;
 import org.apache.sshd.client.channel.ClientChannelEvent;
 import org.apache.sshd.client.session.ClientSession;
-import org.apache.sshd.common.config.keys.loader.KeyPairResourceLoader;
-import org.apache.sshd.common.keyprovider.KeyIdentityProvider;
-import org.apache.sshd.common.util.security.SecurityUtils;
 import org.apache.sshd.scp.client.ScpClient;
 import org.apache.sshd.scp.client.ScpClientCreator;
+import org.apache.sshd.scp.common.ScpHelper;
+import org.apache.sshd.scp.common.ScpTransferEventListener;
+import org.apache.sshd.scp.common.helpers.DefaultScpFileOpener;
 
 import fr.insalyon.creatis.gasw.GaswException;
 import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Config;
-import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Credentials;
 import lombok.extern.log4j.Log4j;
 
 /**
@@ -30,115 +38,375 @@ import lombok.extern.log4j.Log4j;
 @Log4j
 public class RemoteTerminal {
 
+    final private static Set<PosixFilePermission> UPLOAD_PERMISSIONS = PosixFilePermissions.fromString("rw-r--r--");
+
     final private Config            config;
-    final private Credentials       cred;
+    final private SessionPool       pool;
 
-    private SshClient               client;
     private ClientSession           session;
+    private ChannelMultiplexer      multiplexer;
+    private boolean                 dedicated = false;
 
     public RemoteTerminal(final Config config) {
         this.config = config;
-        this.cred = config.getCredentials();
+        this.pool = SessionPool.getInstance(config);
     }
 
-    private void init() throws GaswException {
-        try {
-            final KeyPairResourceLoader loader = SecurityUtils.getKeyPairResourceParser();
-            final Collection<KeyPair> keys = loader.loadKeyPairs(null, Paths.get(cred.getPrivateKeyPath()), null);
+    /**
+     * Borrow a session from the pool, the terminal keeps it until disconnect().
+     */
+    public void connect() throws GaswException {
+        session = pool.borrow();
+        multiplexer = null;
+        dedicated = false;
+    }
 
-            client = SshClient.setUpDefaultClient();
-            client.setKeyIdentityProvider(KeyIdentityProvider.wrapKeyPairs(keys));
-            client.start();
+    /**
+     * Same as connect() for a terminal kept the whole run, its session is not counted in maxSessions.
+     */
+    public void connectDedicated() throws GaswException {
+        session = pool.borrowDedicated();
+        multiplexer = null;
+        dedicated = true;
+    }
 
-        } catch (GeneralSecurityException | IOException e) {
-            log.error(e);
-            throw new GaswException("Failed to init");
-        }
+    /**
+     * Every future returned by executeCommandAsync() must be completed before disconnecting.
+     */
+    public void disconnect() throws GaswException {
+        pool.release(session);
+        session = null;
+        multiplexer = null;
     }
 
-    public void connect() throws GaswException {
-        init();
+    /**
+     * Drop the current (broken) session and borrow a fresh one.
+     */
+    private void reconnect() throws GaswException {
+        log.warn("Ssh session lost, reconnecting");
+        pool.invalidate(session);
+        session = null;
+        multiplexer = null;
+        session = dedicated ? pool.borrowDedicated() : pool.borrow();
+    }
 
+    /**
+     * Run the action on the current session and replay it once on a new session
+     * if the failure comes from the session being closed under us.
+     */
+    private <T> T withSession(final SessionAction<T> action) throws IOException, GaswException {
         try {
-            session = client.connect(cred.getUsername(), cred.getHost(), cred.getPort())
-                .verify(config.getOptions().getSshEventTimeout(), TimeUnit.SECONDS)
-                .getClientSession();
-
-            session.auth().verify(config.getOptions().getSshEventTimeout(), TimeUnit.SECONDS);
-
+            return action.apply(session);
         } catch (IOException e) {
-            log.error(e);
-            throw new GaswException("Failed to connect to ssh");
+            if (session.isOpen()) {
+                throw e;
+            }
+            reconnect();
+            return action.apply(session);
         }
     }
-    
-    public void disconnect() throws GaswException {
+
+    public void upload(final String localFile, final String remoteLocation) throws GaswException {
         try {
-            session.disconnect(11, "Session ended");
-            client.stop();
+            withSession(s -> {
+                scp(s, ScpClient.createSendCommand(remoteLocation, Set.of()),
+                    helper -> helper.sendPaths(List.of(Paths.get(localFile)), false, false, config.getOptions().getScpBufferSize()));
+                return null;
+            });
         } catch (IOException e) {
             log.error(e);
-            client.stop();
-            throw new GaswException("Failed to disconnect");
+            throw new GaswException("Failed to upload file on remote !");
         }
     }
 
-    public void upload(final String localFile, final String remoteLocation) throws GaswException {
-        final ScpClientCreator creator = ScpClientCreator.instance();
-        final ScpClient scpClient = creator.createScpClient(session);
-
+    /**
+     * Write the content straight from memory to the remote path (scp from stream).
+     */
+    public void upload(final byte[] content, final String remotePath) throws GaswException {
         try {
-            scpClient.upload(Paths.get(localFile), remoteLocation);
+            withSession(s -> {
+                createScpClient(s).upload(content, remotePath, UPLOAD_PERMISSIONS, null);
+                return null;
+            });
         } catch (IOException e) {
             log.error(e);
-            throw new GaswException("Failed to upload file on remote !");
+            throw new GaswException("Failed to write file on remote !");
         }
     }
 
     public void download(final String remoteFile, final String localLocation) throws GaswException {
-        final ScpClientCreator creator = ScpClientCreator.instance();
-        final ScpClient scpClient = creator.createScpClient(session);
+        final Path local = Paths.get(localLocation);
 
         try {
-            scpClient.download(remoteFile, Paths.get(localLocation));
+            withSession(s -> {
+                scp(s, ScpClient.createReceiveCommand(remoteFile, Set.of()),
+                    helper -> helper.receive(remoteFile, local, false, Files.isDirectory(local), false, config.getOptions().getScpBufferSize()));
+                return null;
+            });
         } catch (IOException e) {
             log.error(e);
             throw new GaswException("Failed to download file on remote !");
         }
     }
 
+    private ScpClient createScpClient(final ClientSession target) {
+        return ScpClientCreator.instance().createScpClient(target);
+    }
+
+    /**
+     * Run the scp protocol on its own channel with a copy buffer of scpBufferSize,
+     * the ScpClient transfers always use 8 KiB.
+     */
+    private void scp(final ClientSession target, final String command, final ScpAction action) throws IOException {
+        try (ChannelExec channel = target.createExecChannel(command)) {
+            final Integer exitStatus;
+
+            channel.setErr(OutputStream.nullOutputStream());
+            channel.open().verify(config.getOptions().getCommandExecutionTimeout(), TimeUnit.SECONDS);
+            try (InputStream in = channel.getInvertedOut();
+                    OutputStream out = channel.getInvertedIn()) {
+                action.run(new ScpHelper(target, in, out, FileSystems.getDefault(), DefaultScpFileOpener.INSTANCE, ScpTransferEventListener.EMPTY));
+            }
+            channel.waitFor(EnumSet.of(ClientChannelEvent.EXIT_STATUS, ClientChannelEvent.CLOSED),
+                TimeUnit.SECONDS.toMillis(config.getOptions().getTransferTimeout()));
+            exitStatus = channel.getExitStatus();
+            if (exitStatus != null && exitStatus != 0) {
+                throw new IOException("scp exited with " + exitStatus + " : " + command);
+            }
+        }
+    }
 
     public RemoteOutput executeCommand(final String command) {
-        try (ByteArrayOutputStream stdout = new ByteArrayOutputStream();
-                 ByteArrayOutputStream stderr = new ByteArrayOutputStream();
-                 ChannelExec channel = session.createExecChannel(command)) {
+        try {
+            return withSession(s -> execute(s, command));
+        } catch (IOException | GaswException e) {
+            log.error(e);
+            return null;
+        }
+    }
+
+    /**
+     * Run the command on its own channel without waiting for the previous ones,
+     * all the channels being multiplexed on the session of this terminal.
+     */
+    public CompletableFuture<RemoteOutput> executeCommandAsync(final String command) {
+        if (multiplexer == null) {
+            multiplexer = new ChannelMultiplexer(session, config.getOptions());
+        }
+        return multiplexer.submit(command);
+    }
 
-                channel.setOut(stdout);
-                channel.setErr(stderr);
+    /**
+     * Asynchronous version of executeLines(), the handler is called from the channel thread
+     * so it must be quick and thread safe.
+     */
+    public CompletableFuture<RemoteOutput> executeLinesAsync(final String command, final LineHandler handler) {
+        if (multiplexer == null) {
+            multiplexer = new ChannelMultiplexer(session, config.getOptions());
+        }
+        return multiplexer.submit(command, handler);
+    }
 
-                channel.open().verify(config.getOptions().getCommandExecutionTimeout(), TimeUnit.SECONDS);
-                channel.waitFor(EnumSet.of(ClientChannelEvent.CLOSED), config.getOptions().getSshEventTimeout());
+    /**
+     * Run the command with its stdout handed line by line to the handler, in the calling thread, as it is received.
+     * At most streamBufferLines lines wait for the handler: beyond, the channel stops reading and
+     * the ssh window makes the remote command wait too. The handler returning false closes the channel.
+     * @return output with an empty stdout, null if the command failed or stayed silent for sshEventTimeout
+     */
+    public RemoteOutput executeLines(final String command, final LineHandler handler) {
+        final BlockingQueue<String> lines = new ArrayBlockingQueue<>(Math.max(1, config.getOptions().getStreamBufferLines()));
+        final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        final StreamState state = new StreamState();
+        final LineOutputStream out = new LineOutputStream(line -> state.offer(lines, line), config.getOptions().getStreamMaxLineLength());
 
-                return (new RemoteOutput(stdout.toString(), stderr.toString(), channel.getExitStatus()));
-        } catch (IOException e) {
+        try (ChannelExec channel = withSession(s -> openChannel(s, command, out, stderr))) {
+            channel.addCloseFutureListener(closed -> {
+                out.close();
+                state.ended = true;
+            });
+            try {
+                if ( ! consume(lines, handler, state)) {
+                    log.error("No output from the streamed command for " + config.getOptions().getSshEventTimeout() + " ms : " + command);
+                    return null;
+                }
+            } finally {
+                /* set before the channel is closed, the channel thread may be waiting for room in the buffer */
+                state.cancelled = true;
+            }
+            channel.close(true);
+            channel.waitFor(EnumSet.of(ClientChannelEvent.CLOSED), config.getOptions().getSshEventTimeout());
+
+            return new RemoteOutput("", stderr.toString(), channel.getExitStatus() == null ? -1 : channel.getExitStatus());
+
+        } catch (IOException | GaswException e) {
             log.error(e);
             return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * @return false on timeout, true once the command ended or the handler cancelled it
+     */
+    private boolean consume(final BlockingQueue<String> lines, final LineHandler handler, final StreamState state)
+            throws InterruptedException {
+        long lastLine = System.currentTimeMillis();
+
+        while (true) {
+            final String line = lines.poll(100, TimeUnit.MILLISECONDS);
+
+            if (line != null) {
+                lastLine = System.currentTimeMillis();
+                if ( ! handler.accept(line)) {
+                    return true;
+                }
+            } else if (state.ended && lines.isEmpty()) {
+                return true;
+            } else if (System.currentTimeMillis() - lastLine > config.getOptions().getSshEventTimeout()) {
+                return false;
+            }
+        }
+    }
+
+    private ChannelExec openChannel(final ClientSession target, final String command, final OutputStream out, final OutputStream err)
+            throws IOException {
+        final ChannelExec channel = target.createExecChannel(command);
+
+        channel.setOut(out);
+        channel.setErr(err);
+        try {
+            channel.open().verify(config.getOptions().getCommandExecutionTimeout(), TimeUnit.SECONDS);
+        } catch (IOException e) {
+            channel.close(true);
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Run the command with its stdout written to out as it comes (binary safe), stderr is dropped.
+     * Not replayed on a new session: the output may already be partially written.
+     * @return exit status of the command, null if unknown
+     */
+    public Integer executeToStream(final String command, final OutputStream out) throws GaswException {
+        try (ChannelExec channel = session.createExecChannel(command)) {
+            channel.setOut(out);
+            channel.setErr(OutputStream.nullOutputStream());
+            channel.open().verify(config.getOptions().getCommandExecutionTimeout(), TimeUnit.SECONDS);
+            channel.waitFor(EnumSet.of(ClientChannelEvent.CLOSED), TimeUnit.SECONDS.toMillis(config.getOptions().getTransferTimeout()));
+
+            return channel.getExitStatus();
+
+        } catch (IOException e) {
+            log.error(e);
+            throw new GaswException("Failed to stream the command output !");
+        }
+    }
+
+    /**
+     * Run the command with its stdin written by the writer as it goes (binary safe) then closed (EOF),
+     * the ssh window keeps the writer from getting ahead of the remote command. stdout and stderr are dropped.
+     * Not replayed on a new session: the input may already be partially consumed.
+     * @return exit status of the command, null if unknown
+     */
+    public Integer executeFromStream(final String command, final StdinWriter writer) throws GaswException {
+        try (ChannelExec channel = session.createExecChannel(command)) {
+            channel.setOut(OutputStream.nullOutputStream());
+            channel.setErr(OutputStream.nullOutputStream());
+            channel.open().verify(config.getOptions().getCommandExecutionTimeout(), TimeUnit.SECONDS);
+            try (OutputStream stdin = channel.getInvertedIn()) {
+                writer.write(stdin);
+            }
+            channel.waitFor(EnumSet.of(ClientChannelEvent.CLOSED), TimeUnit.SECONDS.toMillis(config.getOptions().getTransferTimeout()));
+
+            return channel.getExitStatus();
+
+        } catch (IOException e) {
+            log.error(e);
+            throw new GaswException("Failed to stream the command input !");
+        }
+    }
+
+    /**
+     * Start a long running command whose stdout is handed line by line to the consumer while it runs.
+     * The channel stays open (and the terminal busy) until the command ends or the channel is closed.
+     */
+    public ChannelExec executeStream(final String command, final Consumer<String> lineConsumer) throws GaswException {
+        try {
+            return withSession(s -> openChannel(s, command, new LineOutputStream(lineConsumer), OutputStream.nullOutputStream()));
+        } catch (IOException e) {
+            log.error(e);
+            throw new GaswException("Failed to start the remote stream !");
+        }
+    }
+
+    private RemoteOutput execute(final ClientSession target, final String command) throws IOException {
+        try (ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+                ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+                ChannelExec channel = target.createExecChannel(command)) {
+
+            channel.setOut(stdout);
+            channel.setErr(stderr);
+
+            channel.open().verify(config.getOptions().getCommandExecutionTimeout(), TimeUnit.SECONDS);
+            channel.waitFor(EnumSet.of(ClientChannelEvent.CLOSED), TimeUnit.SECONDS.toMillis(config.getOptions().getCommandExecutionTimeout()));
+
+            return (new RemoteOutput(stdout.toString(), stderr.toString(), channel.getExitStatus()));
         }
     }
 
     public static RemoteOutput oneCommand(final Config config, final String command) {
         final RemoteTerminal term = new RemoteTerminal(config);
-        final RemoteOutput result;
 
         try {
             term.connect();
-            result = term.executeCommand(command);
-            term.disconnect();
-
-            return result;
+            try {
+                return term.executeCommand(command);
+            } finally {
+                term.disconnect();
+            }
         } catch (GaswException e) {
             log.error("Failed to execute oneCommand !");
             return null;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Shared by the channel thread (producer) and the caller of executeLines() (consumer).
+     */
+    private static class StreamState {
+
+        private volatile boolean    ended;
+        private volatile boolean    cancelled;
+
+        /**
+         * Wait for room in the buffer, give up once the consumer is gone.
+         */
+        private boolean offer(final BlockingQueue<String> lines, final String line) {
+            try {
+                while ( ! cancelled) {
+                    if (lines.offer(line, 100, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+    }
+
+    @FunctionalInterface
+    private interface SessionAction<T> {
+
+        T apply(ClientSession session) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface ScpAction {
+
+        void run(ScpHelper helper) throws IOException;
+    }
+}
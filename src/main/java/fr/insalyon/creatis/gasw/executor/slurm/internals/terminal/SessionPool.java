@@ -0,0 +1,247 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.terminal;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sshd.client.session.ClientSession;
+
+import fr.insalyon.creatis.gasw.GaswException;
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Config;
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Credentials;
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Options;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.metrics.Metrics;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Bounded pool of authenticated ssh sessions shared by every RemoteTerminal.
+ * A borrowed session is used exclusively until it is released (or invalidated if broken).
+ * maxSessions bounds the sessions borrowed for commands, the dedicated ones (the status watcher
+ * keeps one for the whole run) are opened on top of it so they never starve the commands.
+ */
+@Log4j
+public class SessionPool {
+
+    private static SessionPool  instance;
+
+    final private Config                    config;
+    final private Credentials               cred;
+    final private Options                   options;
+    final private Semaphore                 permits;
+    final private Deque<IdleSession>        idle = new ArrayDeque<>();
+    /* borrowed without a permit, see borrowDedicated() */
+    final private Set<ClientSession>        dedicated = ConcurrentHashMap.newKeySet();
+    final private ScheduledExecutorService  evictor;
+
+    private boolean                         closed = false;
+
+    /**
+     * Once shut down the closed pool is returned, it refuses to borrow instead of being re-created.
+     */
+    public synchronized static SessionPool getInstance(final Config config) {
+        if (instance == null) {
+            instance = new SessionPool(config);
+        }
+        return instance;
+    }
+
+    /**
+     * Drop the pool closed by shutdown(), called by an explicit SshContext.start().
+     */
+    synchronized static void reset() {
+        if (instance != null && instance.isClosed()) {
+            instance = null;
+        }
+    }
+
+    /**
+     * Close every pooled session, the client itself is owned by SshContext.
+     */
+    public synchronized static void shutdown() {
+        if (instance != null) {
+            instance.close();
+        }
+    }
+
+    private SessionPool(final Config config) {
+        final long period = Math.max(1, config.getOptions().getSessionIdleTimeout());
+
+        this.config = config;
+        this.cred = config.getCredentials();
+        this.options = config.getOptions();
+        this.permits = new Semaphore(Math.max(1, options.getMaxSessions()), true);
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "slurm-ssh-evictor");
+
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.evictor.scheduleWithFixedDelay(this::evict, period, period, TimeUnit.SECONDS);
+        Metrics.gauge("ssh.sessions.borrowed", () -> Math.max(1, options.getMaxSessions()) - permits.availablePermits());
+    }
+
+    private ClientSession open() throws GaswException {
+        final long start = System.nanoTime();
+        final ClientSession session;
+
+        try {
+            session = SshContext.getClient(config).connect(cred.getUsername(), cred.getHost(), cred.getPort())
+                .verify(options.getSshEventTimeout(), TimeUnit.MILLISECONDS)
+                .getClientSession();
+
+            session.auth().verify(options.getSshEventTimeout(), TimeUnit.MILLISECONDS);
+            Metrics.timer("ssh.connect").recordSince(start);
+            return session;
+
+        } catch (IOException e) {
+            Metrics.meter("ssh.connect.failures").mark();
+            log.error(e);
+            throw new GaswException("Failed to connect to ssh");
+        }
+    }
+
+    /**
+     * Take a healthy session from the pool, opening a new one if none is idle.
+     * Blocks while the maximum number of sessions is already borrowed.
+     */
+    public ClientSession borrow() throws GaswException {
+        checkOpen();
+        try {
+            if ( ! permits.tryAcquire(options.getSshEventTimeout(), TimeUnit.MILLISECONDS)) {
+                throw new GaswException("No ssh session available in the pool !");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GaswException("Interrupted while waiting for a ssh session");
+        }
+
+        try {
+            return take();
+
+        } catch (GaswException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Take a session for a long lived use, outside of the maxSessions bound.
+     */
+    public ClientSession borrowDedicated() throws GaswException {
+        final ClientSession session;
+
+        checkOpen();
+        session = take();
+        dedicated.add(session);
+        return session;
+    }
+
+    private ClientSession take() throws GaswException {
+        IdleSession candidate;
+
+        while ((candidate = pollIdle()) != null) {
+            if (isHealthy(candidate.getSession())) {
+                return candidate.getSession();
+            }
+            closeQuietly(candidate.getSession());
+        }
+        return open();
+    }
+
+    /**
+     * Give back a session borrowed with {@link #borrow()} or {@link #borrowDedicated()}.
+     */
+    public void release(final ClientSession session) {
+        if (session == null) {
+            return;
+        }
+        synchronized (this) {
+            if ( ! closed && isHealthy(session)) {
+                idle.push(new IdleSession(session, System.currentTimeMillis()));
+            } else {
+                closeQuietly(session);
+            }
+        }
+        releasePermit(session);
+    }
+
+    /**
+     * Give back a session that must not be reused (broken transport, failed channel...).
+     */
+    public void invalidate(final ClientSession session) {
+        if (session == null) {
+            return;
+        }
+        closeQuietly(session);
+        releasePermit(session);
+    }
+
+    private void releasePermit(final ClientSession session) {
+        if ( ! dedicated.remove(session)) {
+            permits.release();
+        }
+    }
+
+    private void checkOpen() throws GaswException {
+        if (isClosed()) {
+            throw new GaswException("Ssh session pool already shut down !");
+        }
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private synchronized IdleSession pollIdle() {
+        return idle.poll();
+    }
+
+    private boolean isHealthy(final ClientSession session) {
+        return session.isOpen() && session.isAuthenticated();
+    }
+
+    private synchronized void evict() {
+        final long limit = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(options.getSessionIdleTimeout());
+        final Iterator<IdleSession> it = idle.iterator();
+
+        while (it.hasNext()) {
+            final IdleSession candidate = it.next();
+
+            if (candidate.getLastUsed() < limit || ! isHealthy(candidate.getSession())) {
+                it.remove();
+                closeQuietly(candidate.getSession());
+            }
+        }
+    }
+
+    private void closeQuietly(final ClientSession session) {
+        try {
+            session.close();
+        } catch (IOException e) {
+            log.trace(e);
+        }
+    }
+
+    private synchronized void close() {
+        closed = true;
+        evictor.shutdownNow();
+        idle.forEach(candidate -> closeQuietly(candidate.getSession()));
+        idle.clear();
+    }
+
+    @RequiredArgsConstructor @Getter
+    private static class IdleSession {
+
+        final private ClientSession session;
+        final private long          lastUsed;
+    }
+}
@@ -0,0 +1,88 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.terminal;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.time.Duration;
+import java.util.Collection;
+
+import org.apache.sshd.client.SshClient;
+import org.apache.sshd.common.keyprovider.KeyIdentityProvider;
+import org.apache.sshd.common.util.security.SecurityUtils;
+import org.apache.sshd.core.CoreModuleProperties;
+
+import fr.insalyon.creatis.gasw.GaswException;
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Config;
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Options;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Plugin wide ssh client: one NIO worker pool and one decoded key set for every session.
+ * Started by SlurmExecutor.load() and stopped by SlurmExecutor.terminate().
+ * Once stopped, only an explicit start() brings it back (with a new SessionPool).
+ */
+@Log4j @NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class SshContext {
+
+    private static SshClient            client;
+    private static Collection<KeyPair>  keys;
+    /* set by stop(), only an explicit start() brings the client back */
+    private static boolean              stopped = false;
+
+    public synchronized static void start(final Config config) throws GaswException {
+        final Options options = config.getOptions();
+
+        if (client != null) {
+            return;
+        }
+        stopped = false;
+        try {
+            if (keys == null) {
+                keys = SecurityUtils.getKeyPairResourceParser()
+                    .loadKeyPairs(null, Paths.get(config.getCredentials().getPrivateKeyPath()), null);
+            }
+            client = SshClient.setUpDefaultClient();
+            client.setKeyIdentityProvider(KeyIdentityProvider.wrapKeyPairs(keys));
+            if (options.getSshIoThreads() > 0) {
+                CoreModuleProperties.NIO_WORKERS.set(client, options.getSshIoThreads());
+            }
+            if (options.getKeepAliveInterval() > 0) {
+                CoreModuleProperties.HEARTBEAT_INTERVAL.set(client, Duration.ofSeconds(options.getKeepAliveInterval()));
+            }
+            client.start();
+            SessionPool.reset();
+            log.info("Ssh client started");
+
+        } catch (GeneralSecurityException | IOException e) {
+            log.error(e);
+            client = null;
+            throw new GaswException("Failed to init");
+        }
+    }
+
+    /**
+     * @return the running client, started on the fly if load() was not called yet
+     * @throws GaswException once stopped, a late user must not leak a new client
+     */
+    public synchronized static SshClient getClient(final Config config) throws GaswException {
+        if (stopped) {
+            throw new GaswException("Ssh client already stopped");
+        }
+        if (client == null) {
+            start(config);
+        }
+        return client;
+    }
+
+    public synchronized static void stop() {
+        stopped = true;
+        if (client != null) {
+            client.stop();
+            client = null;
+            log.info("Ssh client stopped");
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.terminal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the stdin of a streamed command, the writes wait while the remote command is not reading.
+ */
+@FunctionalInterface
+public interface StdinWriter {
+
+    /**
+     * @param stdin closed by the caller once the writer returns (EOF for the remote command)
+     */
+    void write(OutputStream stdin) throws IOException;
+}
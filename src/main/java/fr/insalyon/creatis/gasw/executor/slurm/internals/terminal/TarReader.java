@@ -0,0 +1,183 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.terminal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal tar reader, enough to unpack the regular files sent by a remote "tar -cf -".
+ * Understands ustar names (prefix + name), GNU long names (L entries) and pax paths (x entries),
+ * every other kind of entry is skipped.
+ * @see -POSIX.1-1988 ustar format
+ */
+public class TarReader implements Closeable {
+
+    final private static int    BLOCK = 512;
+
+    final private InputStream   in;
+    final private byte[]        buffer = new byte[8192];
+
+    private long                remaining = 0;
+    private long                padding = 0;
+
+    public TarReader(final InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Skip what is left of the current entry and move to the next regular file.
+     * @return name of the entry, null at the end of the archive
+     */
+    public String nextEntry() throws IOException {
+        String longName = null;
+
+        while (true) {
+            final byte[] header = new byte[BLOCK];
+            final char type;
+            final long size;
+
+            skip(remaining + padding);
+            remaining = 0;
+            padding = 0;
+            if ( ! readBlock(header) || isEmpty(header)) {
+                return null;
+            }
+            type = (char) header[156];
+            size = parseSize(header);
+            remaining = size;
+            padding = (BLOCK - size % BLOCK) % BLOCK;
+
+            if (type == 'L') {
+                longName = readString().trim();
+            } else if (type == 'x') {
+                final String path = parsePaxPath(readString());
+
+                longName = path != null ? path : longName;
+            } else if (type == '0' || type == '\0') {
+                return longName != null ? longName : name(header);
+            } else {
+                longName = null;
+            }
+        }
+    }
+
+    /**
+     * Write the content of the current entry.
+     */
+    public void copyEntry(final OutputStream out) throws IOException {
+        while (remaining > 0) {
+            final int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+
+            if (read < 0) {
+                throw new EOFException("Truncated tar entry");
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private String readString() throws IOException {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        copyEntry(content);
+        return content.toString(StandardCharsets.UTF_8).replace("\0", "");
+    }
+
+    /**
+     * Records are "length path=value\n".
+     */
+    private String parsePaxPath(final String records) {
+        for (final String record : records.split("\n")) {
+            final int start = record.indexOf(" path=");
+
+            if (start != -1) {
+                return record.substring(start + " path=".length());
+            }
+        }
+        return null;
+    }
+
+    private String name(final byte[] header) {
+        final String name = cString(header, 0, 100);
+        final String magic = cString(header, 257, 6);
+
+        /* only posix ustar uses the prefix field, old GNU headers store other data there */
+        if (magic.equals("ustar") && header[263] == '0') {
+            final String prefix = cString(header, 345, 155);
+
+            return prefix.isEmpty() ? name : prefix + "/" + name;
+        }
+        return name;
+    }
+
+    /**
+     * Octal, or base 256 (GNU) when the first byte has its high bit set.
+     */
+    private long parseSize(final byte[] header) {
+        long size = 0;
+
+        if ((header[124] & 0x80) != 0) {
+            for (int i = 125; i < 136; i++) {
+                size = (size << 8) | (header[i] & 0xff);
+            }
+            return size;
+        }
+        final String octal = cString(header, 124, 12).trim();
+
+        return octal.isEmpty() ? 0 : Long.parseLong(octal, 8);
+    }
+
+    private String cString(final byte[] header, final int offset, final int length) {
+        int end = offset;
+
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private boolean isEmpty(final byte[] header) {
+        for (final byte b : header) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean readBlock(final byte[] block) throws IOException {
+        int offset = 0;
+
+        while (offset < block.length) {
+            final int read = in.read(block, offset, block.length - offset);
+
+            if (read < 0) {
+                return false;
+            }
+            offset += read;
+        }
+        return true;
+    }
+
+    private void skip(final long count) throws IOException {
+        long left = count;
+
+        while (left > 0) {
+            final int read = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+
+            if (read < 0) {
+                throw new EOFException("Truncated tar archive");
+            }
+            left -= read;
+        }
+    }
+}
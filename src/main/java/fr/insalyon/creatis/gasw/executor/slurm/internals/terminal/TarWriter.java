@@ -0,0 +1,117 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.terminal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Minimal ustar writer, enough to stream regular files to a remote "tar -xf -".
+ * @see -POSIX.1-1988 ustar format
+ */
+public class TarWriter implements Closeable {
+
+    final private static int    BLOCK = 512;
+    final private static int    NAME_LENGTH = 100;
+    final private static int    PREFIX_LENGTH = 155;
+
+    final private OutputStream  out;
+    final private long          mtime = System.currentTimeMillis() / 1000;
+
+    public TarWriter(final OutputStream out) {
+        this.out = out;
+    }
+
+    public void addEntry(final String name, final byte[] content) throws IOException {
+        out.write(header(name, content.length));
+        out.write(content);
+        pad(content.length);
+    }
+
+    /**
+     * Stream the file content, never held in memory.
+     * @throws IOException if the file size changed while it was written
+     */
+    public void addEntry(final String name, final Path file) throws IOException {
+        final long size = Files.size(file);
+        final long written;
+
+        out.write(header(name, size));
+        try (InputStream in = Files.newInputStream(file)) {
+            written = in.transferTo(out);
+        }
+        if (written != size) {
+            throw new IOException(file + " changed while archived");
+        }
+        pad(size);
+    }
+
+    private byte[] header(final String name, final long size) throws IOException {
+        final byte[] header = new byte[BLOCK];
+        final String[] splitted = splitName(name);
+        long checksum = 0;
+
+        put(header, 0, NAME_LENGTH, splitted[1]);
+        putOctal(header, 100, 8, 0644);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        putOctal(header, 124, 12, size);
+        putOctal(header, 136, 12, mtime);
+        put(header, 148, 8, "        ");
+        header[156] = '0';
+        put(header, 257, 6, "ustar");
+        put(header, 263, 2, "00");
+        put(header, 345, PREFIX_LENGTH, splitted[0]);
+
+        for (final byte b : header) {
+            checksum += b & 0xff;
+        }
+        put(header, 148, 8, String.format("%06o", checksum) + "\0 ");
+        return header;
+    }
+
+    /**
+     * @return { prefix, name } as expected by the ustar header
+     */
+    private String[] splitName(final String name) throws IOException {
+        if (name.length() <= NAME_LENGTH) {
+            return new String[] { "", name };
+        }
+        for (int i = name.indexOf('/'); i != -1; i = name.indexOf('/', i + 1)) {
+            if (i <= PREFIX_LENGTH && name.length() - i - 1 <= NAME_LENGTH) {
+                return new String[] { name.substring(0, i), name.substring(i + 1) };
+            }
+        }
+        throw new IOException("Name too long for a tar entry : " + name);
+    }
+
+    private void put(final byte[] header, final int offset, final int length, final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        System.arraycopy(bytes, 0, header, offset, Math.min(length, bytes.length));
+    }
+
+    private void putOctal(final byte[] header, final int offset, final int length, final long value) {
+        put(header, offset, length, String.format("%0" + (length - 1) + "o", value));
+    }
+
+    private void pad(final long written) throws IOException {
+        final int remaining = (int) (written % BLOCK);
+
+        if (remaining != 0) {
+            out.write(new byte[BLOCK - remaining]);
+        }
+    }
+
+    /**
+     * Write the end of archive marker (two empty blocks) and close the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        out.write(new byte[BLOCK * 2]);
+        out.close();
+    }
+}
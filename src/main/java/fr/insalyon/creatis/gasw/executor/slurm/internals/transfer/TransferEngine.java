@@ -0,0 +1,394 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.transfer;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import fr.insalyon.creatis.gasw.GaswException;
+import fr.insalyon.creatis.gasw.executor.slurm.config.Constants;
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Options;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.UploadCache;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.RemoteCommand;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.commands.items.StatBulk;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteFile;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteStream;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.RemoteTerminal;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.TarReader;
+import fr.insalyon.creatis.gasw.executor.slurm.internals.terminal.TarWriter;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Transfer files on a connected terminal with a strategy picked per file:
+ * - ARCHIVE: files up to transferSmallFile, all moved together as one tar stream
+ * - COMPRESSED: text files up to transferLargeFile, gzipped on the fly
+ * - SCP: everything else, sent raw with a copy buffer of scpBufferSize
+ * The tar and gzip streams go through the channel as they are produced, never whole in memory.
+ * Uploads are verified in one command by size (and sha256 with transferChecksum),
+ * downloads are checked by their transport (tar sizes, gzip crc, scp sizes).
+ * Every transfer is accounted in the TransferStats of its strategy.
+ * Upload destinations are directories, download destinations are files (see RemoteFile).
+ */
+@Log4j
+public class TransferEngine {
+
+    public enum Strategy { ARCHIVE, COMPRESSED, SCP }
+
+    final private static Set<String>    TEXT_EXTENSIONS = Set.of("out", "err", "log", "txt", "json", "sh", "batch", "xml", "csv", "conf");
+
+    final private RemoteTerminal        rt;
+    final private Options               options;
+
+    public TransferEngine(final RemoteTerminal rt, final Options options) {
+        this.rt = rt;
+        this.options = options;
+    }
+
+    /**
+     * @param size in bytes, negative if unknown
+     */
+    public Strategy choose(final String name, final long size) {
+        if (size >= 0 && size <= options.getTransferSmallFile()) {
+            return Strategy.ARCHIVE;
+        }
+        if (isText(name) && size <= options.getTransferLargeFile()) {
+            return Strategy.COMPRESSED;
+        }
+        return Strategy.SCP;
+    }
+
+    public void upload(final Collection<RemoteFile> files) throws GaswException {
+        final Map<String, Path> archived = new LinkedHashMap<>();
+        final Map<String, Path> uploaded = new LinkedHashMap<>();
+
+        if (files.isEmpty()) {
+            return;
+        }
+        for (final RemoteFile file : files) {
+            final Path local = Paths.get(file.getSource());
+            final String remote = normalize(Paths.get(file.getDest()).resolve(local.getFileName()).toString());
+            final long size = size(local);
+
+            switch (choose(remote, size)) {
+                case ARCHIVE:
+                    archived.put(remote, local);
+                    break;
+                case COMPRESSED:
+                    timed("upload", Strategy.COMPRESSED, size, () -> uploadCompressed(local, remote));
+                    break;
+                default:
+                    timed("upload", Strategy.SCP, size, () -> rt.upload(file.getSource(), file.getDest()));
+            }
+            uploaded.put(remote, local);
+        }
+        if ( ! archived.isEmpty()) {
+            timed("upload", Strategy.ARCHIVE, archived.values().stream().mapToLong(this::size).sum(), () -> uploadArchive(archived));
+        }
+        if (options.isTransferVerify()) {
+            verify(uploaded);
+        }
+    }
+
+    /**
+     * Every file is tried, the failures are reported together at the end.
+     */
+    public void download(final Collection<RemoteFile> files) throws GaswException {
+        final List<RemoteFile> archived = new ArrayList<>();
+        final List<String> failed = new ArrayList<>();
+        final Map<String, Long> sizes;
+
+        if (files.isEmpty()) {
+            return;
+        }
+        sizes = remoteSizes(files);
+        for (final RemoteFile file : files) {
+            final long size = sizes.getOrDefault(normalize(file.getSource()), -1L);
+
+            try {
+                switch (choose(normalize(file.getSource()), size)) {
+                    case ARCHIVE:
+                        archived.add(file);
+                        break;
+                    case COMPRESSED:
+                        timed("download", Strategy.COMPRESSED, size, () -> downloadCompressed(file));
+                        break;
+                    default:
+                        timed("download", Strategy.SCP, size, () -> rt.download(file.getSource(), file.getDest()));
+                }
+            } catch (GaswException e) {
+                failed.add(file.getSource());
+            }
+        }
+        if ( ! archived.isEmpty()) {
+            final Set<RemoteFile> received = downloadArchive(archived);
+
+            archived.stream()
+                .filter(file -> ! received.contains(file))
+                .forEach(file -> failed.add(file.getSource()));
+        }
+        if ( ! failed.isEmpty()) {
+            throw new GaswException("Failed to download " + failed);
+        }
+    }
+
+    /**
+     * Fetch the files as one gzipped tar stream, the missing remote files are skipped.
+     * @return the files received
+     */
+    public Set<RemoteFile> downloadArchive(final Collection<RemoteFile> files) throws GaswException {
+        final Map<String, RemoteFile> byName = new LinkedHashMap<>();
+        final Set<RemoteFile> received = new HashSet<>();
+        final TransferStats stats = TransferStats.of("download", Strategy.ARCHIVE);
+        final long start = System.nanoTime();
+        Path archive = null;
+        long bytes = 0;
+
+        files.forEach(file -> byName.put(entryName(file.getSource()), file));
+        try {
+            archive = Files.createTempFile("slurm-transfer", ".tar.gz");
+            try (OutputStream out = Files.newOutputStream(archive)) {
+                rt.executeToStream("tar -czf - --ignore-failed-read "
+                    + String.join(" ", files.stream().map(file -> normalize(file.getSource())).toList()) + " 2>/dev/null", out);
+            }
+            try (TarReader tar = new TarReader(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(archive))))) {
+                String name;
+
+                while ((name = tar.nextEntry()) != null) {
+                    final RemoteFile file = byName.get(entryName(name));
+
+                    if (file != null) {
+                        try (OutputStream out = Files.newOutputStream(createParents(Paths.get(file.getDest())))) {
+                            tar.copyEntry(out);
+                        }
+                        received.add(file);
+                        bytes += Files.size(Paths.get(file.getDest()));
+                    }
+                }
+            }
+            stats.record(bytes, System.nanoTime() - start);
+            return received;
+
+        } catch (IOException e) {
+            stats.failed();
+            log.error(e);
+            throw new GaswException("Failed to download the archive !");
+        } finally {
+            deleteQuietly(archive);
+        }
+    }
+
+    /**
+     * tar strips the leading / of the names, so the absolute paths are unpacked from the root
+     * and the relative ones from the home directory, each archive by its own command.
+     */
+    private void uploadArchive(final Map<String, Path> files) throws GaswException {
+        final Map<String, Path> absolute = new LinkedHashMap<>();
+        final Map<String, Path> relative = new LinkedHashMap<>();
+
+        for (final Map.Entry<String, Path> file : files.entrySet()) {
+            if (file.getKey().startsWith("/")) {
+                absolute.put(entryName(file.getKey()), file.getValue());
+            } else {
+                relative.put(file.getKey(), file.getValue());
+            }
+        }
+        unpack(absolute, "tar -xf - -C /");
+        unpack(relative, "tar -xf -");
+    }
+
+    private void unpack(final Map<String, Path> entries, final String command) throws GaswException {
+        final Integer exitCode;
+
+        if (entries.isEmpty()) {
+            return;
+        }
+        exitCode = rt.executeFromStream(command, stdin -> {
+            try (TarWriter tar = new TarWriter(stdin)) {
+                for (final Map.Entry<String, Path> entry : entries.entrySet()) {
+                    tar.addEntry(entry.getKey(), entry.getValue());
+                }
+            }
+        });
+        if (exitCode == null || exitCode != 0) {
+            throw new GaswException("Failed to unpack the uploaded archive !");
+        }
+    }
+
+    private void uploadCompressed(final Path local, final String remote) throws GaswException {
+        final String parent = Paths.get(remote).getParent() == null ? "." : Paths.get(remote).getParent().toString();
+        final Integer exitCode = rt.executeFromStream("mkdir -p " + parent + " && gzip -dc > " + remote, stdin -> {
+            try (OutputStream gzip = new GZIPOutputStream(stdin)) {
+                Files.copy(local, gzip);
+            }
+        });
+
+        if (exitCode == null || exitCode != 0) {
+            throw new GaswException("Failed to upload " + local + " compressed !");
+        }
+    }
+
+    /**
+     * The gzip stream goes to a temporary file, then is inflated to the destination.
+     */
+    private void downloadCompressed(final RemoteFile file) throws GaswException, IOException {
+        Path compressed = null;
+
+        try {
+            final Integer exitCode;
+
+            compressed = Files.createTempFile("slurm-transfer", ".gz");
+            try (OutputStream out = Files.newOutputStream(compressed)) {
+                exitCode = rt.executeToStream("gzip -c " + file.getSource(), out);
+            }
+            if (exitCode == null || exitCode != 0) {
+                throw new GaswException("Failed to download " + file.getSource() + " compressed !");
+            }
+            try (InputStream in = new GZIPInputStream(new BufferedInputStream(Files.newInputStream(compressed)))) {
+                Files.copy(in, createParents(Paths.get(file.getDest())), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            deleteQuietly(compressed);
+        }
+    }
+
+    /**
+     * @throws GaswException listing the files whose remote size or checksum differs
+     */
+    private void verify(final Map<String, Path> uploaded) throws GaswException {
+        final Map<String, String[]> remote = stat(uploaded.keySet(), options.isTransferChecksum());
+        final List<String> mismatches = new ArrayList<>();
+
+        for (final Map.Entry<String, Path> file : uploaded.entrySet()) {
+            final String[] fields = remote.get(file.getKey());
+
+            try {
+                if (fields == null || fields[1].isEmpty() || Long.parseLong(fields[1]) != Files.size(file.getValue())
+                        || (fields.length > 2 && ! fields[2].equals(UploadCache.hash(Files.readAllBytes(file.getValue()))))) {
+                    mismatches.add(file.getKey());
+                }
+            } catch (IOException | NumberFormatException e) {
+                mismatches.add(file.getKey());
+            }
+        }
+        if ( ! mismatches.isEmpty()) {
+            throw new GaswException("Upload verification failed for " + mismatches);
+        }
+    }
+
+    private Map<String, Long> remoteSizes(final Collection<RemoteFile> files) {
+        final Map<String, Long> sizes = new HashMap<>();
+
+        stat(files.stream().map(file -> normalize(file.getSource())).toList(), false).forEach((path, fields) -> {
+            try {
+                sizes.put(path, Long.parseLong(fields[1]));
+            } catch (NumberFormatException e) {
+                /* missing file, size unknown */
+            }
+        });
+        return sizes;
+    }
+
+    /**
+     * @return fields of the StatBulk output per path
+     */
+    private Map<String, String[]> stat(final Collection<String> paths, final boolean checksum) {
+        final Map<String, String[]> result = new HashMap<>();
+        final RemoteCommand command = new StatBulk(paths, checksum).execute(rt);
+        final RemoteStream stdout;
+
+        if (command.getOutput() == null) {
+            return result;
+        }
+        stdout = command.getOutput().getStdout();
+        for (int i = 0; i < stdout.getLineCount(); i++) {
+            final String[] fields = stdout.getRow(i, Constants.PARSABLE_SEPARATOR);
+
+            if (fields.length >= 2) {
+                result.put(fields[0], fields);
+            }
+        }
+        return result;
+    }
+
+    private void timed(final String direction, final Strategy strategy, final long bytes, final Transfer transfer) throws GaswException {
+        final TransferStats stats = TransferStats.of(direction, strategy);
+        final long start = System.nanoTime();
+
+        try {
+            transfer.run();
+            stats.record(Math.max(0, bytes), System.nanoTime() - start);
+
+        } catch (IOException e) {
+            stats.failed();
+            log.error(e);
+            throw new GaswException("Failed to " + direction + " with " + strategy + " !");
+        } catch (GaswException e) {
+            stats.failed();
+            throw e;
+        }
+    }
+
+    private boolean isText(final String name) {
+        final int dot = name.lastIndexOf('.');
+
+        return dot != -1 && TEXT_EXTENSIONS.contains(name.substring(dot + 1));
+    }
+
+    private long size(final Path local) {
+        try {
+            return Files.size(local);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private String normalize(final String path) {
+        return Paths.get(path).normalize().toString();
+    }
+
+    /**
+     * tar drops the leading / of the names it stores.
+     */
+    private String entryName(final String path) {
+        final String normalized = normalize(path);
+
+        return normalized.startsWith("/") ? normalized.substring(1) : normalized;
+    }
+
+    private Path createParents(final Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        return file;
+    }
+
+    private void deleteQuietly(final Path file) {
+        try {
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            log.trace(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Transfer {
+
+        void run() throws GaswException, IOException;
+    }
+}
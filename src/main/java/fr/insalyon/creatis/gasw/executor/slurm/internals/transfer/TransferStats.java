@@ -0,0 +1,81 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.transfer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.insalyon.creatis.gasw.executor.slurm.internals.metrics.Metrics;
+import lombok.Getter;
+
+/**
+ * Plugin wide counters of one transfer strategy in one direction (upload.SCP, download.ARCHIVE...),
+ * used to tune the TransferEngine thresholds against real throughputs.
+ * Also published as the transfer.NAME timer, transfer.DIRECTION.bytes and transfer.NAME.failures meters.
+ */
+public class TransferStats {
+
+    final private static Map<String, TransferStats> STATS = new ConcurrentSkipListMap<>();
+
+    @Getter
+    final private String        name;
+    final private String        direction;
+    final private AtomicLong    count = new AtomicLong();
+    final private AtomicLong    bytes = new AtomicLong();
+    final private AtomicLong    nanos = new AtomicLong();
+    final private AtomicLong    failures = new AtomicLong();
+
+    private TransferStats(final String direction, final TransferEngine.Strategy strategy) {
+        this.name = direction + "." + strategy;
+        this.direction = direction;
+    }
+
+    public static TransferStats of(final String direction, final TransferEngine.Strategy strategy) {
+        return STATS.computeIfAbsent(direction + "." + strategy, key -> new TransferStats(direction, strategy));
+    }
+
+    public static Collection<TransferStats> all() {
+        return Collections.unmodifiableCollection(STATS.values());
+    }
+
+    public void record(final long transferred, final long elapsedNanos) {
+        count.incrementAndGet();
+        bytes.addAndGet(transferred);
+        nanos.addAndGet(elapsedNanos);
+        Metrics.timer("transfer." + name).record(elapsedNanos);
+        Metrics.meter("transfer." + direction + ".bytes").mark(transferred);
+    }
+
+    public void failed() {
+        failures.incrementAndGet();
+        Metrics.meter("transfer." + name + ".failures").mark();
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return bytes per second over all the transfers, 0 before the first one
+     */
+    public double getThroughput() {
+        final long elapsed = nanos.get();
+
+        return elapsed == 0 ? 0 : bytes.get() * 1e9 / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d transfers, %d bytes, %.0f B/s, %d failures",
+            name, getCount(), getBytes(), getThroughput(), getFailures());
+    }
+}
@@ -0,0 +1,84 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class TimerTest {
+
+    @Test
+    public void emptyTimerReportsZero() {
+        final Timer timer = new Timer();
+
+        assertEquals(0, timer.getCount());
+        assertEquals(0, timer.getMean());
+        assertEquals(0, timer.get99thPercentile());
+    }
+
+    @Test
+    public void meanAndMaxAreExact() {
+        final Timer timer = new Timer();
+
+        timer.record(1_000_000);
+        timer.record(3_000_000);
+        assertEquals(2, timer.getCount());
+        assertEquals(2.0, timer.getMean(), 1e-9);
+        assertEquals(3.0, timer.getMax(), 1e-9);
+    }
+
+    /**
+     * With 8 buckets per power of two, the upper bound of a bucket is at most 1/8 above its values.
+     */
+    @Test
+    public void bucketBoundsAreTight() {
+        for (long micros = 0; micros < 50_000_000; micros = micros < 64 ? micros + 1 : micros * 9 / 8 + 1) {
+            final Timer timer = new Timer();
+            final double bound;
+
+            /* the outlier keeps max above the bucket bound, the median is the bucket of micros */
+            timer.record(micros * 1000);
+            timer.record(Long.MAX_VALUE / 2);
+            bound = timer.get50thPercentile() * 1000;
+
+            assertTrue(bound >= micros, micros + " reported as " + bound);
+            assertTrue(bound <= micros + micros / 8.0, micros + " reported as " + bound);
+        }
+    }
+
+    @Test
+    public void percentilesFollowTheDistribution() {
+        final Timer timer = new Timer();
+
+        for (int millis = 1; millis <= 1000; millis++) {
+            timer.record(millis * 1_000_000L);
+        }
+        assertBetween(500, timer.get50thPercentile());
+        assertBetween(950, timer.get95thPercentile());
+        assertBetween(990, timer.get99thPercentile());
+        assertEquals(1000, timer.getMax(), 1e-9);
+    }
+
+    @Test
+    public void percentileNeverExceedsMax() {
+        final Timer timer = new Timer();
+
+        timer.record(1_001_000);
+        assertEquals(1.001, timer.get99thPercentile(), 1e-9);
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        final Timer timer = new Timer();
+
+        timer.record(5_000_000);
+        timer.reset();
+        assertEquals(0, timer.getCount());
+        assertEquals(0, timer.getMax());
+        assertEquals(0, timer.get50thPercentile());
+    }
+
+    private void assertBetween(final double expected, final double actual) {
+        assertTrue(actual >= expected && actual <= expected * 1.125, "expected about " + expected + " but was " + actual);
+    }
+}
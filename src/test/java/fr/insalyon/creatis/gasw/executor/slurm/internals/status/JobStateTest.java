@@ -0,0 +1,88 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.status;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class JobStateTest {
+
+    @Test
+    public void completedKeepsItsExitCode() {
+        final JobState state = JobState.parse("1234|COMPLETED|3:0|None");
+
+        assertEquals("1234", state.getSchedulerJobID());
+        assertEquals(3, state.getExitCode());
+        assertEquals(3, state.getTrustedExitCode());
+    }
+
+    @Test
+    public void timeoutKilledBySignalIsNotSuccessful() {
+        final JobState state = JobState.parse("1234|TIMEOUT|0:9|TimeLimit");
+
+        assertEquals(137, state.getExitCode());
+        assertNull(state.getTrustedExitCode());
+    }
+
+    @Test
+    public void cancelledExitCodeIsNotTrusted() {
+        final JobState state = JobState.parse("1234|CANCELLED by 1000|0:15|None");
+
+        assertEquals("CANCELLED", state.getState());
+        assertEquals(143, state.getExitCode());
+        assertNull(state.getTrustedExitCode());
+    }
+
+    @Test
+    public void outOfMemoryExitCodeIsNotTrusted() {
+        final JobState state = JobState.parse("1234|OUT_OF_MEMORY|0:125|None");
+
+        assertNull(state.getTrustedExitCode());
+    }
+
+    @Test
+    public void signalOnlyCountsWhenNotZero() {
+        assertEquals(0, JobState.parseExitCode("0:0"));
+        assertEquals(2, JobState.parseExitCode("2"));
+        assertNull(JobState.parseExitCode(""));
+    }
+
+    @Test
+    public void unparsableLineIsNull() {
+        assertNull(JobState.parse(""));
+        assertNull(JobState.parse("1234"));
+        assertNull(JobState.parse("|RUNNING"));
+        assertTrue(JobState.parseAll("garbage").isEmpty());
+    }
+
+    @Test
+    public void pendingArrayIsExpandedPerTask() {
+        final List<JobState> states = JobState.parseAll("42_[3-5,7%2]|PENDING|0:0|JobArrayTaskLimit");
+
+        assertEquals(List.of("42_3", "42_4", "42_5", "42_7"), states.stream().map(JobState::getSchedulerJobID).toList());
+        states.forEach(state -> {
+            assertEquals("PENDING", state.getState());
+            assertEquals("JobArrayTaskLimit", state.getReason());
+        });
+    }
+
+    @Test
+    public void startedArrayTaskIsNotExpanded() {
+        final List<JobState> states = JobState.parseAll("42_3|RUNNING|0:0|None");
+
+        assertEquals(1, states.size());
+        assertEquals("42_3", states.get(0).getSchedulerJobID());
+    }
+
+    @Test
+    public void invalidArrayRangeIsSkipped() {
+        final List<JobState> states = JobState.parseAll("42_[a-b,9]|PENDING");
+
+        assertEquals(1, states.size());
+        assertEquals("42_9", states.get(0).getSchedulerJobID());
+        assertNull(states.get(0).getExitCode());
+    }
+}
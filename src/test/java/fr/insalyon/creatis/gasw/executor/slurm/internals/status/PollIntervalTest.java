@@ -0,0 +1,55 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.status;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fr.insalyon.creatis.gasw.executor.slurm.config.json.properties.Options;
+
+public class PollIntervalTest {
+
+    @Test
+    public void changeResetsToMin() throws JsonProcessingException {
+        final PollInterval interval = create(1000, 60000, 5000);
+
+        assertEquals(1000, interval.next(true, false, 0));
+        assertEquals(5000, interval.next(false, false, 0));
+    }
+
+    @Test
+    public void allPendingBacksOffUpToMax() throws JsonProcessingException {
+        final PollInterval interval = create(1000, 30000, 5000);
+
+        assertEquals(10000, interval.next(false, true, 0));
+        assertEquals(20000, interval.next(false, true, 0));
+        assertEquals(30000, interval.next(false, true, 0));
+        assertEquals(30000, interval.next(false, true, 0));
+        assertEquals(1000, interval.next(true, true, 0));
+    }
+
+    @Test
+    public void slowControllerStretchesTheDelay() throws JsonProcessingException {
+        final PollInterval interval = create(1000, 60000, 5000);
+
+        assertEquals(8000, interval.next(true, false, 2000));
+        assertEquals(60000, interval.next(false, false, 20000));
+    }
+
+    @Test
+    public void baseIsClamped() throws JsonProcessingException {
+        assertEquals(2000, create(2000, 60000, 10).next(false, false, 0));
+        assertEquals(3000, create(1000, 3000, 90000).next(false, false, 0));
+        /* a max under the min is raised to it */
+        assertEquals(5000, create(5000, 10, 1).next(false, true, 0));
+    }
+
+    private PollInterval create(final int min, final int max, final long base) throws JsonProcessingException {
+        final Options options = new ObjectMapper().readValue(
+            "{\"pollIntervalMin\": " + min + ", \"pollIntervalMax\": " + max + "}", Options.class);
+
+        return new PollInterval(options, base);
+    }
+}
@@ -0,0 +1,67 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.terminal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class LineOutputStreamTest {
+
+    @Test
+    public void linesAreHandedWithoutTerminator() throws IOException {
+        final List<String> lines = new ArrayList<>();
+        final LineOutputStream out = new LineOutputStream(lines::add);
+
+        out.write("a\r\nbb\n\nc".getBytes(StandardCharsets.UTF_8));
+        assertEquals(List.of("a", "bb", ""), lines);
+        out.close();
+        assertEquals(List.of("a", "bb", "", "c"), lines);
+    }
+
+    @Test
+    public void lineSplitAcrossWritesIsJoined() throws IOException {
+        final List<String> lines = new ArrayList<>();
+        final LineOutputStream out = new LineOutputStream(lines::add);
+
+        out.write("12|RUN".getBytes(StandardCharsets.UTF_8));
+        out.write("NING\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals(List.of("12|RUNNING"), lines);
+    }
+
+    @Test
+    public void longLineIsHandedInChunks() throws IOException {
+        final List<String> lines = new ArrayList<>();
+        final LineOutputStream out = new LineOutputStream(lines::add, 4);
+
+        out.write("abcdefghij\nxy\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals(List.of("abcd", "efgh", "ij", "xy"), lines);
+    }
+
+    @Test
+    public void chunksNeverCutAMultiBytesCharacter() throws IOException {
+        final List<String> lines = new ArrayList<>();
+        final LineOutputStream out = new LineOutputStream(lines::add, 3);
+
+        /* 2 bytes each, the chunk is let grow to 4 bytes rather than cut an é */
+        out.write("ééé\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals(List.of("éé", "é"), lines);
+    }
+
+    @Test
+    public void refusedLineCancelsTheStream() throws IOException {
+        final List<String> lines = new ArrayList<>();
+        final LineOutputStream out = new LineOutputStream(line -> lines.add(line) && lines.size() < 2, 100);
+
+        assertFalse(out.isCancelled());
+        out.write("1\n2\n3\n4".getBytes(StandardCharsets.UTF_8));
+        out.close();
+        assertTrue(out.isCancelled());
+        assertEquals(List.of("1", "2"), lines);
+    }
+}
@@ -0,0 +1,67 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.terminal;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+public class RemoteStreamTest {
+
+    @Test
+    public void linesAreSplitAsSplitWould() {
+        for (final String content : new String[] { "", "a", "a\nb", "a\nb\n", "a\n\nb\n\n\n", "\n\na", "\n" }) {
+            assertArrayEquals(content.split("\n"), new RemoteStream(content).getLines(), content);
+        }
+    }
+
+    @Test
+    public void whitespaceFieldsAreSplitAsRegexWould() {
+        for (final String line : new String[] { "a b", "a   b\tc", " a b", "a b ", "  a  b  ", "a", " ", "" }) {
+            assertArrayEquals(line.split("\\s+"), new RemoteStream(line).getRow(0), "[" + line + "]");
+        }
+    }
+
+    @Test
+    public void delimiterKeepsEmptyFields() {
+        final RemoteStream stream = new RemoteStream("1|COMPLETED||\n2|FAILED|1:0|None");
+
+        assertArrayEquals(new String[] { "1", "COMPLETED", "", "" }, stream.getRow(0, '|'));
+        assertArrayEquals(new String[] { "2", "FAILED", "1:0", "None" }, stream.getRow(1, '|'));
+        assertEquals(4, stream.getFieldCount(0, '|'));
+    }
+
+    @Test
+    public void fieldsAndColumnsAreReadFromTheirLine() {
+        final RemoteStream stream = new RemoteStream("JOBID STATE\n12 RUNNING\n13 PENDING\n");
+
+        assertEquals(3, stream.getLineCount());
+        assertEquals("RUNNING", stream.getField(1, 1).toString());
+        assertEquals("UNN", stream.getField(1, 1).subSequence(1, 4).toString());
+        assertEquals("13 PENDING", stream.getLine(2).toString());
+        assertArrayEquals(new String[] { "JOBID", "12", "13" }, stream.getColumn(0));
+        assertArrayEquals(new String[] { "STATE", "RUNNING", "PENDING" }, stream.getColumn(1, ' '));
+    }
+
+    @Test
+    public void missingLineOrFieldThrows() {
+        final RemoteStream stream = new RemoteStream("a b");
+
+        assertThrows(IndexOutOfBoundsException.class, () -> stream.getRow(1));
+        assertThrows(IndexOutOfBoundsException.class, () -> stream.getField(0, 2));
+        assertThrows(IndexOutOfBoundsException.class, () -> stream.getField(0, 0).charAt(1));
+    }
+
+    @Test
+    public void manyLinesAreIndexed() {
+        final StringBuilder content = new StringBuilder();
+        final RemoteStream stream;
+
+        for (int i = 0; i < 100; i++) {
+            content.append(i).append('|').append("line").append(i).append('\n');
+        }
+        stream = new RemoteStream(content.toString());
+        assertEquals(100, stream.getLineCount());
+        assertEquals("line99", stream.getField(99, 1, '|').toString());
+    }
+}
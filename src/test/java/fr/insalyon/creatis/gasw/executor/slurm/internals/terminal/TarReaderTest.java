@@ -0,0 +1,139 @@
+package fr.insalyon.creatis.gasw.executor.slurm.internals.terminal;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Archives written by TarWriter read back by TarReader.
+ */
+public class TarReaderTest {
+
+    @Test
+    public void entriesRoundTrip() throws IOException {
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        final byte[] block = new byte[512];
+        final byte[] large = new byte[70000];
+        final Map<String, byte[]> read;
+
+        Arrays.fill(block, (byte) 'b');
+        Arrays.fill(large, (byte) 7);
+        entries.put("inputs/empty", new byte[0]);
+        entries.put("inputs/block", block);
+        entries.put("inputs/small.txt", "hello".getBytes(StandardCharsets.UTF_8));
+        entries.put("large.bin", large);
+        entries.put("d".repeat(120) + "/" + "n".repeat(90), "long".getBytes(StandardCharsets.UTF_8));
+
+        read = read(write(entries));
+        assertEquals(entries.keySet(), read.keySet());
+        entries.forEach((name, content) -> assertArrayEquals(content, read.get(name), name));
+    }
+
+    @Test
+    public void fileEntryIsStreamed(@TempDir final Path dir) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final Path file = dir.resolve("large.bin");
+        final byte[] content = new byte[70001];
+
+        Arrays.fill(content, (byte) 3);
+        Files.write(file, content);
+        try (TarWriter tar = new TarWriter(out)) {
+            tar.addEntry("inputs/large.bin", file);
+        }
+        assertArrayEquals(content, read(out.toByteArray()).get("inputs/large.bin"));
+    }
+
+    @Test
+    public void unreadEntryIsSkipped() throws IOException {
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+
+        entries.put("first", new byte[1000]);
+        entries.put("second", "2".getBytes(StandardCharsets.UTF_8));
+        try (TarReader tar = new TarReader(new ByteArrayInputStream(write(entries)))) {
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+            assertEquals("first", tar.nextEntry());
+            assertEquals("second", tar.nextEntry());
+            tar.copyEntry(content);
+            assertArrayEquals("2".getBytes(StandardCharsets.UTF_8), content.toByteArray());
+            assertNull(tar.nextEntry());
+        }
+    }
+
+    @Test
+    public void gnuLongNameAndPaxPathAreUsed() throws IOException {
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        final byte[] archive;
+
+        entries.put("././@LongLink", "some/long/name\0".getBytes(StandardCharsets.UTF_8));
+        entries.put("short1", "1".getBytes(StandardCharsets.UTF_8));
+        entries.put("PaxHeaders/short2", "24 path=other/name\n".getBytes(StandardCharsets.UTF_8));
+        entries.put("short2", "2".getBytes(StandardCharsets.UTF_8));
+        archive = write(entries);
+        /* type flags of the first and third headers, the reader does not check the checksum */
+        archive[156] = 'L';
+        archive[512 * 4 + 156] = 'x';
+
+        assertEquals(Map.of("some/long/name", "1", "other/name", "2"), toStrings(read(archive)));
+    }
+
+    @Test
+    public void tooLongNameIsRefused() {
+        assertThrows(IOException.class, () -> write(Map.of("n".repeat(101), new byte[0])));
+    }
+
+    @Test
+    public void truncatedEntryFails() throws IOException {
+        final byte[] archive = write(Map.of("file", new byte[2000]));
+
+        assertThrows(IOException.class, () -> read(Arrays.copyOf(archive, 1024)));
+    }
+
+    private byte[] write(final Map<String, byte[]> entries) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (TarWriter tar = new TarWriter(out)) {
+            for (final Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                tar.addEntry(entry.getKey(), entry.getValue());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private Map<String, byte[]> read(final byte[] archive) throws IOException {
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+
+        try (TarReader tar = new TarReader(new ByteArrayInputStream(archive))) {
+            String name;
+
+            while ((name = tar.nextEntry()) != null) {
+                final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+                tar.copyEntry(content);
+                entries.put(name, content.toByteArray());
+            }
+        }
+        return entries;
+    }
+
+    private Map<String, String> toStrings(final Map<String, byte[]> entries) {
+        final Map<String, String> result = new LinkedHashMap<>();
+
+        entries.forEach((name, content) -> result.put(name, new String(content, StandardCharsets.UTF_8)));
+        return result;
+    }
+}